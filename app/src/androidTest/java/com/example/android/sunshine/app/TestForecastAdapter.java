@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.widget.AbsListView;
+
+public class TestForecastAdapter extends AndroidTestCase {
+
+    /*
+        The adapter has stable ids and an ItemChoiceManager watching it, and RecyclerView only
+        allows the first to be set before the second is registered.
+     */
+    public void testCreate() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_SINGLE);
+        assertTrue("Error: the adapter should have stable ids", adapter.hasStableIds());
+        assertEquals(0, adapter.getItemCount());
+    }
+}
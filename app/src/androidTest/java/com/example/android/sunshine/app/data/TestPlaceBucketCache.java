@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestPlaceBucketCache extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences("place_buckets", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    public void testGeohash() {
+        /* The example from the geohash article. */
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+
+        String hash = Geohash.encode(37.4220, -122.0841, PlaceBucketCache.PRECISION);
+        double[] center = Geohash.decodeCenter(hash);
+        assertEquals("Error: a cell's centre is in another cell",
+                hash, Geohash.encode(center[0], center[1], PlaceBucketCache.PRECISION));
+        assertEquals(37.4220, center[0], 0.05);
+        assertEquals(-122.0841, center[1], 0.05);
+    }
+
+    public void testNearbyPicksShareLocation() {
+        String bucket = PlaceBucketCache.getBucket(37.4220, -122.0841);
+        assertEquals("1600 Amphitheatre Pkwy",
+                PlaceBucketCache.getLocationSetting(mContext, bucket, "1600 Amphitheatre Pkwy"));
+
+        /* A few hundred metres away: the first pick's location. */
+        String nearby = PlaceBucketCache.getBucket(37.4235, -122.0870);
+        assertEquals(bucket, nearby);
+        assertEquals("1600 Amphitheatre Pkwy",
+                PlaceBucketCache.getLocationSetting(mContext, nearby, "Charleston Park"));
+
+        /* A few kilometres away: a location of its own. */
+        String farther = PlaceBucketCache.getBucket(37.40, -122.05);
+        assertFalse(bucket.equals(farther));
+        assertEquals("Moffett Field",
+                PlaceBucketCache.getLocationSetting(mContext, farther, "Moffett Field"));
+    }
+}
@@ -27,8 +27,13 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import java.io.IOException;
+import java.io.StringReader;
+
+import com.example.android.sunshine.app.data.WeatherContract.ChangeEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.HourlyForecastParser;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -51,6 +56,11 @@ public class TestProvider extends AndroidTestCase {
        the delete functionality in the ContentProvider.
      */
     public void deleteAllRecordsFromProvider() {
+        mContext.getContentResolver().delete(
+                WeatherContract.HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 WeatherEntry.CONTENT_URI,
                 null,
@@ -512,4 +522,351 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Pages through the bulk inserted weather with the keyset paging URIs, checking that each
+        page picks up strictly after (or before) the date the previous one ended on.
+     */
+    public void testPagedWeatherQuery() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        final int pageSize = 4;
+        final String ascending = WeatherEntry.COLUMN_DATE + " ASC";
+        final String descending = WeatherEntry.COLUMN_DATE + " DESC";
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationPage(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, pageSize),
+                null, null, null, ascending);
+        assertEquals("Error: first page has the wrong number of rows", pageSize, cursor.getCount());
+        cursor.moveToLast();
+        long lastDate = cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE));
+        cursor.close();
+
+        int rowsSeen = pageSize;
+        long firstDateOfSecondPage = 0;
+        while (rowsSeen < BULK_INSERT_RECORDS_TO_INSERT) {
+            cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationPageAfter(
+                            TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, lastDate, pageSize),
+                    null, null, null, ascending);
+            assertTrue("Error: ran out of pages early", cursor.getCount() > 0);
+            int dateColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(dateColumn);
+                assertTrue("Error: page overlaps the previous one", date > lastDate);
+                if (0 == firstDateOfSecondPage) {
+                    firstDateOfSecondPage = date;
+                }
+                lastDate = date;
+                rowsSeen++;
+            }
+            cursor.close();
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rowsSeen);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationPageAfter(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, lastDate, pageSize),
+                null, null, null, ascending);
+        assertEquals("Error: expected no rows past the last page", 0, cursor.getCount());
+        cursor.close();
+
+        // Walking back from the start of the second page should give the whole first page.
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationPageBefore(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, firstDateOfSecondPage, pageSize + 1),
+                null, null, null, descending);
+        assertEquals("Error: previous page has the wrong number of rows", pageSize, cursor.getCount());
+        int dateColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        while (cursor.moveToNext()) {
+            assertTrue("Error: previous page overlaps the current one",
+                    cursor.getLong(dateColumn) < firstDateOfSecondPage);
+        }
+        cursor.close();
+    }
+
+    /*
+        Checks that the change log records each write, and that asking for the changes since a
+        token returns only what happened after it.
+     */
+    public void testChangesSinceToken() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        // Everything up to now, to find the latest token.
+        Cursor cursor = mContext.getContentResolver().query(
+                ChangeEntry.buildChangesSinceUri(null), null, null, null, null);
+        assertTrue("Error: no changes logged", cursor.moveToLast());
+        String token = cursor.getString(cursor.getColumnIndex(ChangeEntry.COLUMN_TOKEN));
+        long id = cursor.getLong(cursor.getColumnIndex(ChangeEntry._ID));
+        assertEquals("Error: last change should be a weather insert", ChangeEntry.OPERATION_INSERT,
+                cursor.getString(cursor.getColumnIndex(ChangeEntry.COLUMN_OPERATION)));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                ChangeEntry.buildChangesSinceUri(token), null, null, null, null);
+        assertEquals("Error: expected no changes since the latest token", 0, cursor.getCount());
+        cursor.close();
+
+        // Delete the first two days and expect exactly those two deletes.
+        long cutoff = TestUtilities.TEST_DATE + 1000 * 60 * 60 * 24;
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(cutoff)});
+        assertEquals(2, deleted);
+
+        cursor = mContext.getContentResolver().query(
+                ChangeEntry.buildChangesSinceUri(token), null, null, null, null);
+        assertEquals("Error: wrong number of changes since the token", deleted, cursor.getCount());
+        int idColumn = cursor.getColumnIndex(ChangeEntry._ID);
+        int tokenColumn = cursor.getColumnIndex(ChangeEntry.COLUMN_TOKEN);
+        int tableColumn = cursor.getColumnIndex(ChangeEntry.COLUMN_TABLE);
+        int operationColumn = cursor.getColumnIndex(ChangeEntry.COLUMN_OPERATION);
+        int locationColumn = cursor.getColumnIndex(ChangeEntry.COLUMN_LOC_KEY);
+        int dateColumn = cursor.getColumnIndex(ChangeEntry.COLUMN_DATE);
+        while (cursor.moveToNext()) {
+            assertTrue("Error: sequence numbers must increase", cursor.getLong(idColumn) > id);
+            id = cursor.getLong(idColumn);
+            assertTrue("Error: tokens must carry the sequence number",
+                    cursor.getString(tokenColumn).endsWith(":" + id));
+            assertEquals(WeatherEntry.TABLE_NAME, cursor.getString(tableColumn));
+            assertEquals(ChangeEntry.OPERATION_DELETE, cursor.getString(operationColumn));
+            assertEquals(locationRowId, cursor.getLong(locationColumn));
+            assertTrue("Error: logged a delete for a row that wasn't deleted",
+                    cursor.getLong(dateColumn) <= cutoff);
+        }
+        cursor.close();
+    }
+
+    /*
+        Recreating the change log starts its sequence numbers over, so a token handed out
+        before then may name an entry that exists again with other contents.  Asking with one
+        must reset the caller, not return a delta from the wrong point.
+     */
+    public void testChangesSinceTokenAfterRecreate() {
+        // Start from a new change log, so the token below is its first entry's.
+        recreateDatabase();
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(ContentUris.parseId(locationUri)));
+
+        // An early token, which the recreated change log will reach again.
+        Cursor cursor = mContext.getContentResolver().query(
+                ChangeEntry.buildChangesSinceUri(null), null, null, null, null);
+        assertTrue("Error: no changes logged", cursor.moveToFirst());
+        String oldToken = cursor.getString(cursor.getColumnIndex(ChangeEntry.COLUMN_TOKEN));
+        cursor.close();
+
+        recreateDatabase();
+
+        // The table is empty.
+        cursor = mContext.getContentResolver().query(
+                ChangeEntry.buildChangesSinceUri(oldToken), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: an old token into an empty change log should reset",
+                ChangeEntry.OPERATION_RESET,
+                cursor.getString(cursor.getColumnIndex(ChangeEntry.COLUMN_OPERATION)));
+        cursor.close();
+
+        // The new change log has passed the old token's sequence number.
+        locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(ContentUris.parseId(locationUri)));
+        cursor = mContext.getContentResolver().query(
+                ChangeEntry.buildChangesSinceUri(oldToken), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: a token from an earlier change log should reset",
+                ChangeEntry.OPERATION_RESET,
+                cursor.getString(cursor.getColumnIndex(ChangeEntry.COLUMN_OPERATION)));
+        String newToken = cursor.getString(cursor.getColumnIndex(ChangeEntry.COLUMN_TOKEN));
+        assertFalse("Error: the reset should hand out a token from the new change log",
+                oldToken.equals(newToken));
+        cursor.close();
+
+        // And that token works as usual.
+        cursor = mContext.getContentResolver().query(
+                ChangeEntry.buildChangesSinceUri(newToken), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // A token without an epoch, as handed out before there were epochs, resets too.
+        cursor = mContext.getContentResolver().query(
+                ChangeEntry.buildChangesSinceUri("1"), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(ChangeEntry.OPERATION_RESET,
+                cursor.getString(cursor.getColumnIndex(ChangeEntry.COLUMN_OPERATION)));
+        cursor.close();
+    }
+
+    /*
+        What an upgrade does: drop every table and create them again.
+     */
+    private void recreateDatabase() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        dbHelper.onUpgrade(db, 0, 0);
+        db.close();
+    }
+
+    /*
+        Upserting a location twice should store it once and return the same row both times.
+     */
+    public void testUpsertLocation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri firstUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, testValues);
+        long firstRowId = ContentUris.parseId(firstUri);
+        assertTrue(firstRowId != -1);
+
+        Uri secondUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, testValues);
+        assertEquals("Error: upserting an existing location returned a different row",
+                firstRowId, ContentUris.parseId(secondUri));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: upsert stored the location more than once", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Two weeks of one location fold into one weekly row per calendar week, and the values
+        come out of SQLite already aggregated.
+     */
+    public void testWeeklyAggregates() {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        final long dayInMillis = 1000 * 60 * 60 * 24;
+        // Start on a Monday, so the 14 days are exactly two weeks.  Stepping by a day and a half
+        // then normalizing lands on the next midnight even across a DST change.
+        long monday = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        while ((Math.round(monday / (double) dayInMillis) + 3) % 7 != 0) {
+            monday = WeatherContract.normalizeDate(monday + dayInMillis + dayInMillis / 2);
+        }
+        ContentValues[] weatherValues = new ContentValues[14];
+        for (int day = 0; day < weatherValues.length; day++) {
+            weatherValues[day] = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues[day].put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(monday + day * dayInMillis + dayInMillis / 2));
+            weatherValues[day].put(WeatherEntry.COLUMN_MIN_TEMP, day);
+            weatherValues[day].put(WeatherEntry.COLUMN_MAX_TEMP, day + 10);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.AggregateEntry.buildAggregateUri(
+                        WeatherContract.AggregateEntry.PERIOD_WEEK,
+                        locationValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING), 0, 0),
+                null, null, null, null);
+        assertEquals("Error: two weeks of weather didn't fold into two weeks", 2, cursor.getCount());
+
+        cursor.moveToFirst();
+        assertEquals(7, cursor.getInt(cursor.getColumnIndex(
+                WeatherContract.AggregateEntry.COLUMN_DAY_COUNT)));
+        assertEquals(weatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE).longValue(),
+                cursor.getLong(cursor.getColumnIndex(WeatherContract.AggregateEntry.COLUMN_PERIOD_START)));
+        assertEquals(0.0, cursor.getDouble(cursor.getColumnIndex(
+                WeatherContract.AggregateEntry.COLUMN_TEMP_MIN)));
+        assertEquals(16.0, cursor.getDouble(cursor.getColumnIndex(
+                WeatherContract.AggregateEntry.COLUMN_TEMP_MAX)));
+        // The average of (day + day + 10) / 2 over days 0 to 6.
+        assertEquals(8.0, cursor.getDouble(cursor.getColumnIndex(
+                WeatherContract.AggregateEntry.COLUMN_TEMP_AVG)), 0.001);
+
+        cursor.moveToNext();
+        assertEquals(7.0, cursor.getDouble(cursor.getColumnIndex(
+                WeatherContract.AggregateEntry.COLUMN_TEMP_MIN)));
+        cursor.close();
+    }
+
+    /*
+        Parses a two-hour feed, stores it, and reads it back by location and start hour.  The
+        values come back scaled to integers, and storing an hour again replaces it.
+     */
+    public void testHourlyForecast() throws IOException {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        String locationSetting = locationValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+
+        final long firstSeconds = 1419033600L;
+        String feed = "{\"cod\":\"200\",\"cnt\":2,\"list\":["
+                + "{\"dt\":" + firstSeconds + ",\"main\":{\"temp\":-1.234,\"pressure\":1013.25,"
+                + "\"humidity\":87},\"weather\":[{\"id\":600,\"main\":\"Snow\"}],"
+                + "\"wind\":{\"speed\":4.77,\"deg\":232.5}},"
+                + "{\"dt\":" + (firstSeconds + 3 * 3600) + ",\"main\":{\"temp\":0.5,"
+                + "\"pressure\":1012,\"humidity\":90},\"weather\":[{\"id\":601}],"
+                + "\"wind\":{\"speed\":0}}],"
+                + "\"city\":{\"name\":\"North Pole\"}}";
+        ContentValues[] hourlyValues =
+                HourlyForecastParser.parse(new StringReader(feed), locationRowId);
+        assertEquals(2, hourlyValues.length);
+
+        int inserted = mContext.getContentResolver().bulkInsert(
+                WeatherContract.HourlyEntry.CONTENT_URI, hourlyValues);
+        assertEquals(2, inserted);
+        // The same hours again replace the stored ones rather than adding to them.
+        mContext.getContentResolver().bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                HourlyForecastParser.parse(new StringReader(feed), locationRowId));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithStartHour(
+                        locationSetting, firstSeconds * 1000),
+                null, null, null, null);
+        assertEquals("Error: replaced hours were stored twice", 2, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testHourlyForecast.  Error validating first hour",
+                cursor, hourlyValues[0]);
+        assertEquals(-123, cursor.getInt(cursor.getColumnIndex(WeatherContract.HourlyEntry.COLUMN_TEMP)));
+        assertEquals(10133, cursor.getInt(cursor.getColumnIndex(WeatherContract.HourlyEntry.COLUMN_PRESSURE)));
+        assertEquals(477, cursor.getInt(cursor.getColumnIndex(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED)));
+        cursor.moveToNext();
+        // The second hour has no wind direction.
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(WeatherContract.HourlyEntry.COLUMN_DEGREES)));
+        cursor.close();
+
+        // Starting after the first hour leaves only the second.
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithStartHour(
+                        locationSetting, (firstSeconds + 3600) * 1000),
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A feed with hours missing values must still give the complete hours, rather than rows
+        the provider can't store.
+     */
+    public void testHourlyForecastSkipsIncompleteHours() throws IOException {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        final long firstSeconds = 1419033600L;
+        String feed = "{\"cod\":\"200\",\"list\":["
+                // No temperature.
+                + "{\"dt\":" + firstSeconds + ",\"main\":{\"pressure\":1013,"
+                + "\"humidity\":87},\"weather\":[{\"id\":600}],\"wind\":{\"speed\":4}},"
+                // No weather or wind at all.
+                + "{\"dt\":" + (firstSeconds + 3 * 3600) + ",\"main\":{\"temp\":0.5,"
+                + "\"pressure\":1012,\"humidity\":90}},"
+                + "{\"dt\":" + (firstSeconds + 6 * 3600) + ",\"main\":{\"temp\":1,"
+                + "\"pressure\":1011,\"humidity\":91},\"weather\":[{\"id\":800}],"
+                + "\"wind\":{\"speed\":2,\"deg\":90}}]}";
+        ContentValues[] hourlyValues =
+                HourlyForecastParser.parse(new StringReader(feed), locationRowId);
+        assertEquals("Error: incomplete hours weren't skipped", 1, hourlyValues.length);
+        assertEquals(800, (int) hourlyValues[0].getAsInteger(
+                WeatherContract.HourlyEntry.COLUMN_WEATHER_ID));
+        assertEquals(1, mContext.getContentResolver().bulkInsert(
+                WeatherContract.HourlyEntry.CONTENT_URI, hourlyValues));
+    }
 }
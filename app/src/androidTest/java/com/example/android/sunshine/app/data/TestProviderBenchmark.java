@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.ForecastRow;
+import com.example.android.sunshine.app.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.HourlyForecastParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/*
+    Timings for the provider's read paths, logged under LOG_TAG.  These only assert that the
+    compared queries return the same data; the numbers are for reading, not for failing builds,
+    since they depend on the device.
+ */
+public class TestProviderBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProviderBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int FORECAST_DAYS = 14;
+    // Each measurement is the best of this many runs, to keep one-off GCs out of the numbers.
+    private static final int RUNS = 5;
+    // Aggregate benchmarks store history up to here and aggregate the last AGGREGATE_WINDOW_DAYS.
+    private static final long HISTORY_END = TestUtilities.TEST_DATE + 10000 * DAY_IN_MILLIS;
+    private static final int AGGREGATE_WINDOW_DAYS = 91;
+    // OpenWeatherMap's 5 day / 3 hour feed.
+    private static final int HOURLY_FEED_ENTRIES = 5 * 24 / 3;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testMultiLocationQuery10() {
+        compareMultiLocationQuery(10);
+    }
+
+    public void testMultiLocationQuery100() {
+        compareMultiLocationQuery(100);
+    }
+
+    /*
+        One multi-location query against one buildWeatherLocationWithStartDate query per
+        location, over the same locations and dates.
+     */
+    private void compareMultiLocationQuery(int locationCount) {
+        String[] locationSettings = insertLocations(locationCount, FORECAST_DAYS);
+        long startDate = TestUtilities.TEST_DATE;
+
+        long separateNanos = Long.MAX_VALUE;
+        int separateRows = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            separateRows = 0;
+            for (String locationSetting : locationSettings) {
+                separateRows += readAll(WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, startDate));
+            }
+            separateNanos = Math.min(separateNanos, SystemClock.elapsedRealtimeNanos() - start);
+        }
+
+        long multiNanos = Long.MAX_VALUE;
+        int multiRows = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            multiRows = readAll(WeatherEntry.buildWeatherLocationsWithDateRange(
+                    locationSettings, startDate, 0));
+            multiNanos = Math.min(multiNanos, SystemClock.elapsedRealtimeNanos() - start);
+        }
+
+        assertEquals("Error: the multi-location query returned different rows",
+                separateRows, multiRows);
+        assertEquals(locationCount * FORECAST_DAYS, multiRows);
+        Log.i(LOG_TAG, locationCount + " locations: " + locationCount + " queries "
+                + (separateNanos / 1000) + "us, one multi-location query "
+                + (multiNanos / 1000) + "us");
+    }
+
+    public void testAggregates14Days() {
+        measureAggregates(14);
+    }
+
+    public void testAggregates1000Days() {
+        measureAggregates(1000);
+    }
+
+    public void testAggregates10000Days() {
+        measureAggregates(10000);
+    }
+
+    /*
+        Weekly aggregates over a fixed window should cost the same however much history is
+        stored, since the index range scan only visits the window's rows and only the folded
+        rows cross into the app.  Compare the logged numbers across the three sizes.
+     */
+    private void measureAggregates(int days) {
+        long[] dates = insertHistory(days);
+        int windowDays = Math.min(days, AGGREGATE_WINDOW_DAYS);
+        // From the stored dates themselves, which are midnights, so the bounds can't fall
+        // part way into a day.
+        Uri uri = WeatherContract.AggregateEntry.buildAggregateUri(
+                WeatherContract.AggregateEntry.PERIOD_WEEK, TestUtilities.TEST_LOCATION,
+                dates[days - windowDays], dates[days - 1]);
+
+        Runtime runtime = Runtime.getRuntime();
+        long bestNanos = Long.MAX_VALUE;
+        long maxHeapDelta = 0;
+        int dayCount = 0;
+        for (int run = 0; run < RUNS; run++) {
+            runtime.gc();
+            long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+            long start = SystemClock.elapsedRealtimeNanos();
+            dayCount = sumDayCounts(uri);
+            bestNanos = Math.min(bestNanos, SystemClock.elapsedRealtimeNanos() - start);
+            maxHeapDelta = Math.max(maxHeapDelta,
+                    runtime.totalMemory() - runtime.freeMemory() - heapBefore);
+        }
+
+        assertEquals("Error: the aggregates didn't cover the window", windowDays, dayCount);
+        Log.i(LOG_TAG, days + " days stored: weekly aggregates over " + windowDays + " days "
+                + (bestNanos / 1000) + "us, heap grew at most " + (maxHeapDelta / 1024) + "KB");
+    }
+
+    /*
+        Ingests a 5 day / 3 hour feed for each of 50 locations the way a sync does, streaming
+        each feed into rows and storing them with one bulk insert.  Parsing the same feeds into
+        a JSONObject tree, as the daily sync does, is timed alongside for comparison.
+     */
+    public void testHourlyIngestion50Locations() throws IOException, JSONException {
+        final int locationCount = 50;
+        insertLocations(locationCount, 0);
+        long[] locationIds = readLocationIds();
+        String[] feeds = new String[locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            feeds[i] = buildHourlyFeed(i);
+        }
+
+        long ingestNanos = Long.MAX_VALUE;
+        long treeNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < locationCount; i++) {
+                mContext.getContentResolver().bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                        HourlyForecastParser.parse(new StringReader(feeds[i]), locationIds[i]));
+            }
+            ingestNanos = Math.min(ingestNanos, SystemClock.elapsedRealtimeNanos() - start);
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (String feed : feeds) {
+                JSONArray list = new JSONObject(feed).getJSONArray("list");
+                for (int entry = 0; entry < list.length(); entry++) {
+                    list.getJSONObject(entry).getJSONObject("main").getDouble("temp");
+                }
+            }
+            treeNanos = Math.min(treeNanos, SystemClock.elapsedRealtimeNanos() - start);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherContract.HourlyEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: not every hour was stored",
+                locationCount * HOURLY_FEED_ENTRIES, cursor.getCount());
+        cursor.close();
+        Log.i(LOG_TAG, locationCount + " hourly feeds: streamed and stored in "
+                + (ingestNanos / 1000) + "us, JSONObject parse alone "
+                + (treeNanos / 1000) + "us");
+    }
+
+    /*
+        What a cold start has to do before the forecast list can show anything: map and decode
+        the snapshot, against opening the database, running the forecast join and filling the
+        cursor window.  A fresh WeatherDbHelper stands in for the database a new process opens.
+     */
+    public void testColdStartSnapshotRead() {
+        String locationSetting = insertLocations(1, 0)[0];
+        long locationRowId = readLocationIds()[0];
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] weatherValues = new ContentValues[FORECAST_DAYS];
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            weatherValues[day] = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues[day].put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(today + day * DAY_IN_MILLIS + DAY_IN_MILLIS / 2));
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        ForecastSnapshot.write(mContext, locationSetting);
+
+        final String forecastQuery = "SELECT " +
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG +
+                " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+                " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+                " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                WeatherEntry.COLUMN_DATE + " >= ? ORDER BY " + WeatherEntry.COLUMN_DATE +
+                " ASC LIMIT " + FORECAST_DAYS;
+
+        long databaseNanos = Long.MAX_VALUE;
+        int databaseRows = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            Cursor cursor = db.rawQuery(forecastQuery,
+                    new String[]{locationSetting, Long.toString(today)});
+            databaseRows = 0;
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    cursor.getString(column);
+                }
+                databaseRows++;
+            }
+            cursor.close();
+            dbHelper.close();
+            databaseNanos = Math.min(databaseNanos, SystemClock.elapsedRealtimeNanos() - start);
+        }
+
+        long snapshotNanos = Long.MAX_VALUE;
+        List<ForecastRow> snapshotRows = null;
+        for (int run = 0; run < RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            snapshotRows = ForecastSnapshot.read(mContext, locationSetting, today);
+            snapshotNanos = Math.min(snapshotNanos, SystemClock.elapsedRealtimeNanos() - start);
+        }
+
+        assertNotNull("Error: the sync's snapshot couldn't be read back", snapshotRows);
+        assertEquals("Error: the snapshot holds different days than the database",
+                databaseRows, snapshotRows.size());
+        Log.i(LOG_TAG, "Cold start forecast: database open and query "
+                + (databaseNanos / 1000) + "us, snapshot read " + (snapshotNanos / 1000) + "us");
+    }
+
+    /**
+     * @return the _id of every location, in insertion order.
+     */
+    long[] readLocationIds() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, LocationEntry._ID + " ASC");
+        long[] locationIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            locationIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return locationIds;
+    }
+
+    /**
+     * @return a 5 day / 3 hour feed shaped like OpenWeatherMap's, with values varied by seed.
+     */
+    private static String buildHourlyFeed(int seed) {
+        final long firstSeconds = TestUtilities.TEST_DATE;
+        StringBuilder feed = new StringBuilder("{\"cod\":\"200\",\"message\":0.0036,\"cnt\":")
+                .append(HOURLY_FEED_ENTRIES).append(",\"list\":[");
+        for (int entry = 0; entry < HOURLY_FEED_ENTRIES; entry++) {
+            long seconds = firstSeconds + entry * 3 * 60 * 60;
+            feed.append(entry == 0 ? "" : ",")
+                    .append("{\"dt\":").append(seconds)
+                    .append(",\"main\":{\"temp\":").append(10 + (seed + entry) % 20 + 0.37)
+                    .append(",\"temp_min\":").append(9.5)
+                    .append(",\"temp_max\":").append(12.25)
+                    .append(",\"pressure\":").append(1000 + entry % 30 + 0.55)
+                    .append(",\"sea_level\":1020.1,\"grnd_level\":1000.4")
+                    .append(",\"humidity\":").append(50 + entry % 40)
+                    .append(",\"temp_kf\":0},\"weather\":[{\"id\":").append(800 + entry % 4)
+                    .append(",\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}]")
+                    .append(",\"clouds\":{\"all\":20},\"wind\":{\"speed\":").append(1 + entry % 9 + 0.42)
+                    .append(",\"deg\":").append((entry * 37) % 360)
+                    .append("},\"sys\":{\"pod\":\"d\"},\"dt_txt\":\"2014-12-20 00:00:00\"}");
+        }
+        return feed.append("],\"city\":{\"id\":").append(seed)
+                .append(",\"name\":\"Benchmark\",\"coord\":{\"lat\":1,\"lon\":2},")
+                .append("\"country\":\"NP\"}}").toString();
+    }
+
+    /**
+     * Inserts the North Pole location with days of weather ending on HISTORY_END's day.
+     *
+     * @return the stored dates, oldest first.
+     */
+    long[] insertHistory(int days) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, locationValues));
+
+        // Stepping by a day and a half then normalizing lands on the next midnight even across
+        // a DST change.
+        long[] dates = new long[days];
+        dates[0] = WeatherContract.normalizeDate(HISTORY_END - (days - 1) * DAY_IN_MILLIS);
+        for (int day = 1; day < days; day++) {
+            dates[day] = WeatherContract.normalizeDate(
+                    dates[day - 1] + DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+        }
+        ContentValues[] weatherValues = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            weatherValues[day] = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues[day].put(WeatherEntry.COLUMN_DATE, dates[day]);
+            weatherValues[day].put(WeatherEntry.COLUMN_MIN_TEMP, day % 30);
+            weatherValues[day].put(WeatherEntry.COLUMN_MAX_TEMP, day % 30 + 10);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        return dates;
+    }
+
+    /**
+     * Walks an aggregate query's rows.
+     *
+     * @return the total number of days the rows fold.
+     */
+    int sumDayCounts(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int days = 0;
+        try {
+            int dayCountColumn = cursor.getColumnIndex(
+                    WeatherContract.AggregateEntry.COLUMN_DAY_COUNT);
+            int tempAvgColumn = cursor.getColumnIndex(
+                    WeatherContract.AggregateEntry.COLUMN_TEMP_AVG);
+            while (cursor.moveToNext()) {
+                cursor.getDouble(tempAvgColumn);
+                days += cursor.getInt(dayCountColumn);
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    /**
+     * Inserts locationCount locations with days of weather each.
+     *
+     * @return the inserted location settings.
+     */
+    String[] insertLocations(int locationCount, int days) {
+        String[] locationSettings = new String[locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            locationSettings[i] = "benchmark-" + i;
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSettings[i]);
+            locationValues.put(LocationEntry.COLUMN_CITY_NAME, "Benchmark " + i);
+            locationValues.put(LocationEntry.COLUMN_COORD_LAT, i % 90);
+            locationValues.put(LocationEntry.COLUMN_COORD_LONG, i % 180);
+            Uri locationUri = mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, locationValues);
+            long locationRowId = ContentUris.parseId(locationUri);
+
+            ContentValues[] weatherValues = new ContentValues[days];
+            for (int day = 0; day < days; day++) {
+                weatherValues[day] = TestUtilities.createWeatherValues(locationRowId);
+                weatherValues[day].put(WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        }
+        return locationSettings;
+    }
+
+    /**
+     * Queries uri and walks every row, the way a consumer would.
+     *
+     * @return the row count.
+     */
+    int readAll(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        int rows = 0;
+        try {
+            int dateColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            while (cursor.moveToNext()) {
+                cursor.getLong(dateColumn);
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
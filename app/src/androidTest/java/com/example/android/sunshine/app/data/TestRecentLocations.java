@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+public class TestRecentLocations extends AndroidTestCase {
+
+    private static final int MAX_SIZE = 3;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences("recent_locations", Context.MODE_PRIVATE).edit().clear()
+                .commit();
+    }
+
+    public void testLeastRecentDropped() {
+        add("94043");
+        add("London");
+        add("Paris");
+        add("Tokyo");
+
+        List<RecentLocations.Location> locations = RecentLocations.get(mContext, MAX_SIZE);
+        assertEquals(MAX_SIZE, locations.size());
+        assertEquals("Tokyo", locations.get(0).setting);
+        assertEquals("Paris", locations.get(1).setting);
+        assertEquals("London", locations.get(2).setting);
+        assertNull("Error: the least recently shown location was kept",
+                RecentLocations.find(mContext, "94043"));
+
+        /* Showing a location again moves it to the front rather than adding it twice. */
+        add("London");
+        locations = RecentLocations.get(mContext, MAX_SIZE);
+        assertEquals(MAX_SIZE, locations.size());
+        assertEquals("London", locations.get(0).setting);
+        assertEquals("Tokyo", locations.get(1).setting);
+
+        /* A smaller limit applies straight away. */
+        assertEquals(1, RecentLocations.get(mContext, 1).size());
+    }
+
+    public void testLastSyncedKept() {
+        long now = System.currentTimeMillis();
+        RecentLocations.add(mContext, "Charleston Park", true, 37.42f, -122.08f, MAX_SIZE);
+        add("London");
+        RecentLocations.setSynced(mContext, "Charleston Park", now);
+        /* Not a recent location, so nothing to record. */
+        RecentLocations.setSynced(mContext, "Paris", now);
+        assertNull(RecentLocations.find(mContext, "Paris"));
+
+        /* Shown again: moved to the front, with its last sync time kept. */
+        RecentLocations.add(mContext, "Charleston Park", true, 37.42f, -122.08f, MAX_SIZE);
+        RecentLocations.Location location = RecentLocations.find(mContext, "Charleston Park");
+        assertEquals(now, location.lastSynced);
+        assertTrue(location.isFresh(now));
+        assertFalse(location.isFresh(now + RecentLocations.FRESH_MILLIS));
+        assertTrue(location.latLonAvailable);
+        assertEquals(37.42f, location.latitude);
+        assertEquals(-122.08f, location.longitude);
+
+        assertFalse(RecentLocations.find(mContext, "London").isFresh(now));
+    }
+
+    private void add(String setting) {
+        RecentLocations.add(mContext, setting, false, 0, 0, MAX_SIZE);
+    }
+}
@@ -34,8 +34,20 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    // content://com.example.android.sunshine.app/forecasts?location=London%2C%20UK"
+    private static final Uri TEST_WEATHER_FOR_LOCATIONS_DIR = WeatherContract.WeatherEntry.buildWeatherLocationsWithDateRange(new String[]{LOCATION_QUERY}, TEST_DATE, 0);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/location/upsert"
+    private static final Uri TEST_LOCATION_UPSERT = WeatherContract.LocationEntry.UPSERT_URI;
+    // content://com.example.android.sunshine.app/changes?since=42"
+    private static final Uri TEST_CHANGES_DIR = WeatherContract.ChangeEntry.buildChangesSinceUri("7:42");
+    private static final Uri TEST_AGGREGATES_DIR = WeatherContract.AggregateEntry.buildAggregateUri(
+            WeatherContract.AggregateEntry.PERIOD_WEEK, null, TEST_DATE, 0);
+    private static final Uri TEST_AGGREGATES_WITH_LOCATION_DIR = WeatherContract.AggregateEntry.buildAggregateUri(
+            WeatherContract.AggregateEntry.PERIOD_MONTH, LOCATION_QUERY, TEST_DATE, 0);
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithStartHour(LOCATION_QUERY, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +63,21 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER FOR LOCATIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_FOR_LOCATIONS_DIR), WeatherProvider.WEATHER_FOR_LOCATIONS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION UPSERT URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_UPSERT), WeatherProvider.LOCATION_UPSERT);
+        assertEquals("Error: The CHANGES URI was matched incorrectly.",
+                testMatcher.match(TEST_CHANGES_DIR), WeatherProvider.CHANGES);
+        assertEquals("Error: The AGGREGATES URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATES_DIR), WeatherProvider.AGGREGATES);
+        assertEquals("Error: The AGGREGATES WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATES_WITH_LOCATION_DIR), WeatherProvider.AGGREGATES_WITH_LOCATION);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
     }
 }
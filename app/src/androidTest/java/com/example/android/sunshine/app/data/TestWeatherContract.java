@@ -42,4 +42,27 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        A paged query's limit comes straight from its URI, so anything that isn't a positive
+        number must fall back to the default page size rather than fail the query.
+     */
+    public void testLimitFromUri() {
+        Uri pageUri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE, 7);
+        assertEquals("7", WeatherContract.WeatherEntry.getLimitFromUri(pageUri));
+        assertNull("Error: a query without a limit should not be paged",
+                WeatherContract.WeatherEntry.getLimitFromUri(
+                        WeatherContract.WeatherEntry.buildWeatherLocation(TEST_WEATHER_LOCATION)));
+
+        String defaultLimit = Integer.toString(WeatherContract.WeatherEntry.DEFAULT_LIMIT);
+        for (String badLimit : new String[]{"abc", "0", "-3", "99999999999"}) {
+            Uri badUri = WeatherContract.WeatherEntry.buildWeatherLocation(TEST_WEATHER_LOCATION)
+                    .buildUpon()
+                    .appendQueryParameter(WeatherContract.WeatherEntry.PARAM_LIMIT, badLimit)
+                    .build();
+            assertEquals("Error: limit " + badLimit + " should fall back to the default",
+                    defaultLimit, WeatherContract.WeatherEntry.getLimitFromUri(badUri));
+        }
+    }
 }
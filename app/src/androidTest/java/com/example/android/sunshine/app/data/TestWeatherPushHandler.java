@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.gcm.WeatherPushHandler;
+
+/*
+    Feeds WeatherPushHandler the bundles GCM would deliver, without GCM.  The pushes are all for a
+    location other than the preferred one, so none of them starts a real sync.
+ */
+public class TestWeatherPushHandler extends AndroidTestCase {
+
+    private static final String PUSH_LOCATION = "push-test";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        assertFalse("Error: the test location must not be the preferred one",
+                PUSH_LOCATION.equals(Utility.getPreferredLocation(mContext)));
+
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, PUSH_LOCATION);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, locationValues));
+        // The cache is cleared from a binder thread, which may not have happened yet.
+        LocationIdCache.getInstance(mContext).clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testDeltaUpdatesAndInsertsDays() {
+        insertDay(getDay(1));
+
+        String forecast = "["
+                // Only the high has changed for a stored day.
+                + "{\"date\":" + getDay(1) + ",\"max\":30.5},"
+                // A whole new day.
+                + "{\"date\":" + getDay(2) + ",\"short_desc\":\"Clear\",\"weather_id\":800,"
+                + "\"min\":10,\"max\":20,\"humidity\":40,\"pressure\":1010,\"wind\":2.5,"
+                + "\"degrees\":90},"
+                // Part of a day that isn't stored, which can't be inserted.
+                + "{\"date\":" + getDay(3) + ",\"max\":25}"
+                + "]";
+        Bundle push = createPush(WeatherPushHandler.TYPE_DELTA);
+        push.putString(WeatherPushHandler.KEY_FORECAST, forecast);
+        assertTrue(WeatherPushHandler.isForecastPush(push));
+        assertEquals(WeatherPushHandler.RESULT_APPLIED, WeatherPushHandler.handle(mContext, push));
+
+        Cursor cursor = queryDays();
+        assertEquals("Error: the partial unstored day was inserted", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(getDay(1), cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(30.5, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        // Columns the push left out are kept.
+        assertEquals(65.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        cursor.moveToNext();
+        assertEquals(getDay(2), cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(800, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+        cursor.close();
+    }
+
+    public void testInvalidateDropsDays() {
+        insertDay(getDay(1));
+        insertDay(getDay(2));
+        insertDay(getDay(3));
+
+        // A range that has already passed is nothing to do.
+        Bundle push = createPush(WeatherPushHandler.TYPE_INVALIDATE);
+        push.putString(WeatherPushHandler.KEY_END_DATE, Long.toString(getDay(-2)));
+        assertEquals(WeatherPushHandler.RESULT_IGNORED, WeatherPushHandler.handle(mContext, push));
+
+        push = createPush(WeatherPushHandler.TYPE_INVALIDATE);
+        // Any time of day stands for the whole day.
+        push.putString(WeatherPushHandler.KEY_START_DATE,
+                Long.toString(getDay(2) + DAY_IN_MILLIS / 3));
+        push.putString(WeatherPushHandler.KEY_END_DATE, Long.toString(getDay(3)));
+        assertEquals(WeatherPushHandler.RESULT_INVALIDATED,
+                WeatherPushHandler.handle(mContext, push));
+
+        Cursor cursor = queryDays();
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(getDay(1), cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+    }
+
+    public void testMalformedPushesIgnored() {
+        Bundle alert = new Bundle();
+        alert.putString("data", "{\"weather\":\"Hurricane\",\"location\":\"Miami\"}");
+        assertFalse(WeatherPushHandler.isForecastPush(alert));
+
+        Bundle push = createPush(WeatherPushHandler.TYPE_DELTA);
+        push.remove(WeatherPushHandler.KEY_LOCATION);
+        assertEquals(WeatherPushHandler.RESULT_IGNORED, WeatherPushHandler.handle(mContext, push));
+
+        push = createPush(WeatherPushHandler.TYPE_DELTA);
+        push.putString(WeatherPushHandler.KEY_FORECAST, "[{\"max\":");
+        assertEquals(WeatherPushHandler.RESULT_IGNORED, WeatherPushHandler.handle(mContext, push));
+
+        push = createPush(WeatherPushHandler.TYPE_INVALIDATE);
+        push.putString(WeatherPushHandler.KEY_START_DATE, "tomorrow");
+        assertEquals(WeatherPushHandler.RESULT_IGNORED, WeatherPushHandler.handle(mContext, push));
+
+        push = createPush("unknown");
+        assertEquals(WeatherPushHandler.RESULT_IGNORED, WeatherPushHandler.handle(mContext, push));
+
+        // A location nothing is stored for.
+        push = createPush(WeatherPushHandler.TYPE_DELTA);
+        push.putString(WeatherPushHandler.KEY_LOCATION, "push-test-unknown");
+        push.putString(WeatherPushHandler.KEY_FORECAST, "[{\"date\":" + getDay(1) + ",\"max\":1}]");
+        assertEquals(WeatherPushHandler.RESULT_IGNORED, WeatherPushHandler.handle(mContext, push));
+    }
+
+    private Bundle createPush(String type) {
+        Bundle push = new Bundle();
+        push.putString(WeatherPushHandler.KEY_TYPE, type);
+        push.putString(WeatherPushHandler.KEY_LOCATION, PUSH_LOCATION);
+        return push;
+    }
+
+    private void insertDay(long date) {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, date);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+    }
+
+    private Cursor queryDays() {
+        return mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationId)},
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    /*
+        The stored date of the day offset days from today.  The extra half day keeps a daylight
+        saving change from landing the result on the wrong day.
+     */
+    private static long getDay(int offset) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        return WeatherContract.normalizeDate(today + offset * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+}
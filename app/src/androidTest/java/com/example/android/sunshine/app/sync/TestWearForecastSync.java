@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public class TestWearForecastSync extends AndroidTestCase {
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+        // Clocks went forward here on 13 March 2016, and back on 6 November.
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        super.tearDown();
+    }
+
+    /*
+        The days around a daylight saving change are 23 and 25 hours long, but each must still
+        be sent as one day after the one before.
+     */
+    public void testEncodeAcrossDaylightSaving() throws Exception {
+        assertDayOffsets(2016, Calendar.MARCH, 10);
+        assertDayOffsets(2016, Calendar.NOVEMBER, 3);
+    }
+
+    private void assertDayOffsets(int year, int month, int firstDay) throws Exception {
+        final int days = 7;
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP});
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, firstDay, 12, 0);
+        for (int i = 0; i < days; i++) {
+            cursor.addRow(new Object[]{
+                    WeatherContract.normalizeDate(calendar.getTimeInMillis()), 800, 20.0, 10.0});
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        cursor.moveToFirst();
+        byte[] payload = WearForecastSync.encode(cursor);
+        cursor.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        assertEquals(WearForecastSync.PAYLOAD_VERSION, in.readByte());
+        in.readLong();
+        assertEquals(days, in.readUnsignedByte());
+        for (int i = 0; i < days; i++) {
+            assertEquals("Error: wrong day offset for day " + i, i, in.readUnsignedByte());
+            // Condition, high and low.
+            in.readShort();
+            in.readShort();
+            in.readShort();
+        }
+        in.close();
+    }
+}
@@ -204,11 +204,9 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                 mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
             } else {
                 // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
+                WeatherArtLoader.loadArt(Glide.with(this), getActivity(), weatherId,
+                        Utility.getArtResourceForWeatherCondition(weatherId),
+                        WeatherArtLoader.getTodayIconSize(getActivity()), mIconView);
             }
 
             // Read date from cursor and update views for day of week and date
@@ -16,12 +16,14 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,11 +32,16 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from a {@link ForecastPageLoader} to a {@link android.support.v7.widget.RecyclerView}.
+ *
+ * Each list of {@link ForecastRow}s handed to {@link #swapRows(List)} is diffed against the
+ * rows currently shown, so a sync that only touches a few days, or a page being added or
+ * dropped at either end, only rebinds the rows that actually changed.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,8 +51,16 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    private List<ForecastRow> mRows = Collections.emptyList();
+    // Incremented on every swap so that a diff finishing after a newer swap is dropped.
+    private int mSwapGeneration;
+    // Display settings the current rows were bound with.  If these change, every row is stale
+    // even when the underlying data is identical.
+    private boolean mBoundMetric;
+    private boolean mBoundLocalGraphics;
     final private Context mContext;
+    final private int mListIconSize;
+    final private int mTodayIconSize;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
@@ -73,9 +88,10 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            mClickHandler.onClick(mRows.get(adapterPosition).date, this);
             mICM.onClick(this);
         }
     }
@@ -86,8 +102,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     public ForecastAdapter(Context context, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
         mContext = context;
+        mListIconSize = WeatherArtLoader.getListIconSize(context);
+        mTodayIconSize = WeatherArtLoader.getTodayIconSize(context);
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Before the ItemChoiceManager registers its observer, after which this would throw.
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,37 +144,37 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        ForecastRow row = mRows.get(position);
+        int weatherId = row.weatherId;
         int defaultImage;
+        int artSize;
         boolean useLongToday;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
                 defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
+                artSize = mTodayIconSize;
                 useLongToday = true;
                 break;
             default:
                 defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
+                artSize = mListIconSize;
                 useLongToday = false;
         }
 
         if ( Utility.usingLocalGraphics(mContext) ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
-                    .error(defaultImage)
-                    .crossFade()
-                    .into(forecastAdapterViewHolder.mIconView);
+            WeatherArtLoader.loadArt(Glide.with(mContext), mContext, weatherId, defaultImage,
+                    artSize, forecastAdapterViewHolder.mIconView);
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        // Read date from the row
+        long dateInMillis = row.date;
 
         // Find TextView and set formatted date on it
         forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
@@ -170,14 +190,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        // Read high temperature from the row
+        double high = row.high;
         String highString = Utility.formatTemperature(mContext, high);
         forecastAdapterViewHolder.mHighTempView.setText(highString);
         forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        // Read low temperature from the row
+        double low = row.low;
         String lowString = Utility.formatTemperature(mContext, low);
         forecastAdapterViewHolder.mLowTempView.setText(lowString);
         forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
@@ -206,20 +226,115 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).id;
+    }
+
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.size();
+    }
+
+    /**
+     * Replaces the rows shown with rows.  The diff against the current rows is computed off
+     * the main thread and dispatched as granular item changes once it is ready.
+     */
+    public void swapRows(List<ForecastRow> rows) {
+        final List<ForecastRow> oldRows = mRows;
+        final List<ForecastRow> newRows = null == rows
+                ? Collections.<ForecastRow>emptyList() : rows;
+        final int generation = ++mSwapGeneration;
+        final boolean isMetric = Utility.isMetric(mContext);
+        final boolean usingLocalGraphics = Utility.usingLocalGraphics(mContext);
+
+        // Going from or to an empty list is a single range change; no diff is needed.  Doing
+        // this synchronously also keeps the empty view and getItemCount() current for callers.
+        if (oldRows.isEmpty() || newRows.isEmpty()) {
+            applyRows(newRows, null, isMetric, usingLocalGraphics);
+            return;
+        }
+
+        final boolean displayChanged = isMetric != mBoundMetric
+                || usingLocalGraphics != mBoundLocalGraphics;
+        new AsyncTask<Void, Void, DiffUtil.DiffResult>() {
+            @Override
+            protected DiffUtil.DiffResult doInBackground(Void... params) {
+                return DiffUtil.calculateDiff(
+                        new ForecastDiffCallback(oldRows, newRows, displayChanged));
+            }
+
+            @Override
+            protected void onPostExecute(DiffUtil.DiffResult diffResult) {
+                if (generation == mSwapGeneration) {
+                    applyRows(newRows, diffResult, isMetric, usingLocalGraphics);
+                }
+            }
+        }.execute();
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    private void applyRows(List<ForecastRow> newRows, DiffUtil.DiffResult diffResult,
+                           boolean isMetric, boolean usingLocalGraphics) {
+        List<ForecastRow> oldRows = mRows;
+        mRows = newRows;
+        mBoundMetric = isMetric;
+        mBoundLocalGraphics = usingLocalGraphics;
+
+        if (diffResult == null) {
+            if (!oldRows.isEmpty()) {
+                notifyItemRangeRemoved(0, oldRows.size());
+            }
+            if (!newRows.isEmpty()) {
+                notifyItemRangeInserted(0, newRows.size());
+            }
+        } else {
+            diffResult.dispatchUpdatesTo(this);
+            // The first row has its own layout.  When a different day moves into the top slot,
+            // the rows on either side of that boundary need their view types re-evaluated.
+            if (mUseTodayLayout && oldRows.get(0).id != newRows.get(0).id) {
+                notifyItemRangeChanged(0, Math.min(2, newRows.size()));
+            }
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    /**
+     * Warms the art cache for up to count rows starting at fromPosition, so that they bind from
+     * memory when they scroll into view.  Each distinct condition is only requested once.
+     */
+    public void preloadArt(int fromPosition, int count) {
+        if (Utility.usingLocalGraphics(mContext)) {
+            return;
+        }
+        int end = Math.min(fromPosition + count, mRows.size());
+        SparseBooleanArray requested = new SparseBooleanArray();
+        for (int i = Math.max(fromPosition, 0); i < end; i++) {
+            int weatherId = mRows.get(i).weatherId;
+            int artSize = getItemViewType(i) == VIEW_TYPE_TODAY ? mTodayIconSize : mListIconSize;
+            // Conditions that share art share a url, but the art size still tells them apart.
+            int key = Utility.getArtResourceForWeatherCondition(weatherId) * 31 + artSize;
+            if (!requested.get(key)) {
+                requested.put(key, true);
+                WeatherArtLoader.preloadArt(mContext, weatherId, artSize);
+            }
+        }
+    }
+
+    public ForecastRow getRow(int position) {
+        return mRows.get(position);
+    }
+
+    /**
+     * @return the adapter position showing the given (normalized) date, or
+     * {@link RecyclerView#NO_POSITION} if that day is not in the list.
+     */
+    public int getPositionForDate(long date) {
+        for (int i = 0; i < mRows.size(); i++) {
+            if (mRows.get(i).date == date) {
+                return i;
+            }
+        }
+        return RecyclerView.NO_POSITION;
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
@@ -228,4 +343,42 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
             vfh.onClick(vfh.itemView);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Compares two forecast snapshots.  Rows are the same item when they share a
+     * (location, date) key, and have the same contents when every displayed value matches.
+     */
+    private static class ForecastDiffCallback extends DiffUtil.Callback {
+        private final List<ForecastRow> mOldRows;
+        private final List<ForecastRow> mNewRows;
+        private final boolean mDisplayChanged;
+
+        ForecastDiffCallback(List<ForecastRow> oldRows, List<ForecastRow> newRows,
+                             boolean displayChanged) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+            mDisplayChanged = displayChanged;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).id == mNewRows.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return !mDisplayChanged
+                    && mOldRows.get(oldItemPosition).equals(mNewRows.get(newItemPosition));
+        }
+    }
+}
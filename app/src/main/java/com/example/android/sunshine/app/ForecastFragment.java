@@ -20,7 +20,6 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -28,11 +27,11 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -45,13 +44,16 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.RecentLocations;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.List;
+
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<ForecastPageLoader.PageWindow>, SharedPreferences.OnSharedPreferenceChangeListener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
@@ -59,13 +61,29 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    private boolean mForecastDrawnReported;
+    // The sync records a location's sync time after its rows go in, so the list's reload for
+    // them can come too early to see it.  Held here because the preferences only keep a weak
+    // reference.
+    private final SharedPreferences.OnSharedPreferenceChangeListener mRecentLocationsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
+                    updateFreshnessView();
+                }
+            };
 
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
+    // How close, in rows, the user may scroll to either end of the loaded window before the
+    // neighbouring page is requested.
+    private static final int PREFETCH_DISTANCE = 5;
+    // How many rows past the visible ones to decode art for ahead of time.
+    private static final int ART_PREFETCH_COUNT = 3;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
+    static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
             // the content provider joins the location & weather tables in the background
             // (both have an _id column)
@@ -105,6 +123,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
          * DetailFragmentCallback for when an item has been selected.
          */
         public void onItemSelected(Uri dateUri, ForecastAdapter.ForecastAdapterViewHolder vh);
+
+        /**
+         * Called once, when the forecast as stored in the database has been drawn.
+         */
+        public void onForecastDrawn();
     }
 
     public ForecastFragment() {
@@ -121,13 +144,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
         sp.registerOnSharedPreferenceChangeListener(this);
+        RecentLocations.registerOnChangeListener(getActivity(), mRecentLocationsListener);
         super.onResume();
+        // The time since the last sync has moved on while the fragment was away.
+        updateFreshnessView();
     }
 
     @Override
     public void onPause() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
         sp.unregisterOnSharedPreferenceChangeListener(this);
+        RecentLocations.unregisterOnChangeListener(getActivity(), mRecentLocationsListener);
         super.onPause();
     }
 
@@ -200,6 +227,51 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        // Page the forecast in as the user approaches either end of what is loaded, rather than
+        // holding every stored day in memory, and warm the art cache for the rows about to
+        // scroll into view.
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            // Row the art prefetch last started from, so we only prefetch once per new row.
+            private int mLastArtPrefetchPosition = RecyclerView.NO_POSITION;
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy == 0) {
+                    return;
+                }
+                LinearLayoutManager layoutManager =
+                        (LinearLayoutManager) recyclerView.getLayoutManager();
+                ForecastPageLoader loader = getForecastPageLoader();
+                if (dy > 0) {
+                    int lastVisible = layoutManager.findLastVisibleItemPosition();
+                    if (lastVisible == RecyclerView.NO_POSITION) {
+                        return;
+                    }
+                    if (lastVisible + 1 != mLastArtPrefetchPosition) {
+                        mLastArtPrefetchPosition = lastVisible + 1;
+                        mForecastAdapter.preloadArt(lastVisible + 1, ART_PREFETCH_COUNT);
+                    }
+                    if (null != loader &&
+                            lastVisible >= mForecastAdapter.getItemCount() - 1 - PREFETCH_DISTANCE) {
+                        loader.loadNextPage();
+                    }
+                } else {
+                    int firstVisible = layoutManager.findFirstVisibleItemPosition();
+                    if (firstVisible == RecyclerView.NO_POSITION) {
+                        return;
+                    }
+                    int prefetchFrom = Math.max(0, firstVisible - ART_PREFETCH_COUNT);
+                    if (prefetchFrom != mLastArtPrefetchPosition) {
+                        mLastArtPrefetchPosition = prefetchFrom;
+                        mForecastAdapter.preloadArt(prefetchFrom, firstVisible - prefetchFrom);
+                    }
+                    if (null != loader && firstVisible <= PREFETCH_DISTANCE) {
+                        loader.loadPreviousPage();
+                    }
+                }
+            }
+        });
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -248,9 +320,61 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
 
+        // On a fresh start, show the forecast as of the last sync straight away.  The loader
+        // swaps in the stored rows once the database has been read, and since those are diffed
+        // against these, only days that have changed since are rebound.
+        if (savedInstanceState == null) {
+            List<ForecastRow> snapshotRows = ForecastSnapshot.read(getActivity(),
+                    Utility.getPreferredLocation(getActivity()), System.currentTimeMillis());
+            if (null != snapshotRows) {
+                mForecastAdapter.swapRows(snapshotRows);
+                Log.d(LOG_TAG, "Showing " + snapshotRows.size() + " snapshot rows");
+            }
+        }
+        logFirstForecastFrame(null != mForecastAdapter && mForecastAdapter.getItemCount() > 0);
+
         return rootView;
     }
 
+    /**
+     * Records the first frame with forecast rows in the startup trace, and logs whether those
+     * rows came from the snapshot or the database.
+     */
+    private void logFirstForecastFrame(final boolean fromSnapshot) {
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (mRecyclerView.getChildCount() > 0) {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    StartupTrace.mark(StartupTrace.FIRST_FORECAST_FRAME);
+                    Log.d(LOG_TAG, "First forecast frame from the "
+                            + (fromSnapshot ? "snapshot" : "database"));
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Tells the activity once the frame showing the first load from the database is drawn.
+     */
+    private void reportForecastDrawn() {
+        if (mForecastDrawnReported) {
+            return;
+        }
+        mForecastDrawnReported = true;
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (null != getActivity()) {
+                    ((Callback) getActivity()).onForecastDrawn();
+                }
+                return true;
+            }
+        });
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         // We hold for transition here just in-case the activity
@@ -273,11 +397,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
-            Cursor c = mForecastAdapter.getCursor();
-            if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
+            if (mForecastAdapter.getItemCount() > 0) {
+                ForecastRow row = mForecastAdapter.getRow(0);
+                String posLat = row.coordLat;
+                String posLong = row.coordLong;
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -301,34 +424,39 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     }
 
 
+    private ForecastPageLoader getForecastPageLoader() {
+        Loader<ForecastPageLoader.PageWindow> loader =
+                getLoaderManager().getLoader(FORECAST_LOADER);
+        return (ForecastPageLoader) loader;
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    public Loader<ForecastPageLoader.PageWindow> onCreateLoader(int i, Bundle bundle) {
         // This is called when a new Loader needs to be created.  This
         // fragment only uses one loader, so we don't care about checking the id.
 
-        // To only show current and future dates, filter the query to return weather only for
-        // dates after or including today.
-
-        // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-
+        // To only show current and future dates, the loader only pages through weather for
+        // dates after or including today, in ascending date order.
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
-
-        return new CursorLoader(getActivity(),
-                weatherForLocationUri,
-                FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
+
+        return new ForecastPageLoader(getActivity(),
+                locationSetting,
+                System.currentTimeMillis(),
+                FORECAST_COLUMNS);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<ForecastPageLoader.PageWindow> loader,
+                               ForecastPageLoader.PageWindow data) {
+        mForecastAdapter.swapRows(data.rows);
         updateEmptyView();
-        if ( data.getCount() == 0 ) {
+        updateFreshnessView();
+        reportForecastDrawn();
+        if ( data.pageMove ) {
+            // The user is scrolling through the list; leave the position and selection alone.
+            return;
+        }
+        if ( data.rows.isEmpty() ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
@@ -341,16 +469,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
@@ -383,8 +502,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<ForecastPageLoader.PageWindow> loader) {
+        mForecastAdapter.swapRows(null);
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
@@ -429,6 +548,29 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         }
     }
 
+    /*
+        Shows how long ago the forecast in the list was synced, so a recent location's forecast,
+        shown straight from the database, doesn't pass for a new one.
+     */
+    private void updateFreshnessView() {
+        View view = getView();
+        TextView tv = null != view ? (TextView) view.findViewById(R.id.forecast_freshness) : null;
+        if ( null == tv ) {
+            return;
+        }
+        RecentLocations.Location location = RecentLocations.find(getActivity(),
+                Utility.getPreferredLocation(getActivity()));
+        if ( mForecastAdapter.getItemCount() == 0 || null == location ||
+                0 == location.lastSynced ) {
+            tv.setVisibility(View.GONE);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        tv.setText(getString(R.string.forecast_updated, DateUtils.getRelativeTimeSpanString(
+                Math.min(location.lastSynced, now), now, DateUtils.MINUTE_IN_MILLIS)));
+        tv.setVisibility(View.VISIBLE);
+    }
+
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(getString(R.string.pref_location_status_key))) {
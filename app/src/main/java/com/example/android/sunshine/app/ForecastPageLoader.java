@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the forecast for one location a page at a time, using keyset pagination on
+ * (location_id, date) against the {@link com.example.android.sunshine.app.data.WeatherProvider}.
+ *
+ * At most a fixed number of pages stay resident: paging forward past the cap drops the oldest
+ * page, and paging back drops the newest, so memory stays bounded however much history is
+ * stored.  Every cursor is read and closed on the loader thread, so the UI thread never fills a
+ * cursor window.  Any change to the weather table reloads the resident pages in one query.
+ */
+public class ForecastPageLoader extends AsyncTaskLoader<ForecastPageLoader.PageWindow> {
+
+    public static final int DEFAULT_PAGE_SIZE = WeatherContract.WeatherEntry.DEFAULT_LIMIT;
+    public static final int DEFAULT_MAX_RESIDENT_PAGES = 4;
+
+    private static final int LOAD_REFRESH = 0;
+    private static final int LOAD_NEXT_PAGE = 1;
+    private static final int LOAD_PREVIOUS_PAGE = 2;
+
+    private static final String SORT_ASCENDING = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String SORT_DESCENDING = WeatherContract.WeatherEntry.COLUMN_DATE + " DESC";
+
+    /**
+     * The rows currently resident, split into the pages they were loaded as.
+     */
+    public static final class PageWindow {
+        public final List<ForecastRow> rows;
+        public final boolean hasPreviousPage;
+        public final boolean hasNextPage;
+        // True if this window differs from the last one only by a page added or dropped at
+        // either end, false if it is the result of a fresh load or a content change.
+        public final boolean pageMove;
+        final List<List<ForecastRow>> pages;
+
+        PageWindow(List<List<ForecastRow>> pages, boolean hasPreviousPage, boolean hasNextPage,
+                   boolean pageMove) {
+            List<ForecastRow> rows = new ArrayList<ForecastRow>();
+            for (List<ForecastRow> page : pages) {
+                rows.addAll(page);
+            }
+            this.rows = Collections.unmodifiableList(rows);
+            this.pages = Collections.unmodifiableList(pages);
+            this.hasPreviousPage = hasPreviousPage;
+            this.hasNextPage = hasNextPage;
+            this.pageMove = pageMove;
+        }
+    }
+
+    private final String mLocationSetting;
+    private final long mStartDate;
+    private final String[] mProjection;
+    private final int mPageSize;
+    private final int mMaxResidentPages;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserverRegistered;
+
+    // The kind of load the next loadInBackground should perform.  Content changes always land
+    // here as LOAD_REFRESH.
+    private volatile int mRequestedLoad = LOAD_REFRESH;
+    // Last window delivered.  Only replaced on the main thread; read by the next load.
+    private volatile PageWindow mWindow;
+    private boolean mLoadInFlight;
+
+    public ForecastPageLoader(Context context, String locationSetting, long startDate,
+                              String[] projection) {
+        this(context, locationSetting, startDate, projection,
+                DEFAULT_PAGE_SIZE, DEFAULT_MAX_RESIDENT_PAGES);
+    }
+
+    public ForecastPageLoader(Context context, String locationSetting, long startDate,
+                              String[] projection, int pageSize, int maxResidentPages) {
+        super(context);
+        mLocationSetting = locationSetting;
+        mStartDate = startDate;
+        mProjection = projection;
+        mPageSize = pageSize;
+        mMaxResidentPages = maxResidentPages;
+    }
+
+    /**
+     * Requests the page after the last resident one.  Ignored if there is no such page or a
+     * load is already running, so it is safe to call on every scroll event.
+     */
+    public void loadNextPage() {
+        PageWindow window = mWindow;
+        if (window != null && window.hasNextPage && !mLoadInFlight) {
+            mRequestedLoad = LOAD_NEXT_PAGE;
+            forceLoad();
+        }
+    }
+
+    /**
+     * Requests the page before the first resident one.  Only has an effect once pages have
+     * been dropped from the front of the window.
+     */
+    public void loadPreviousPage() {
+        PageWindow window = mWindow;
+        if (window != null && window.hasPreviousPage && !mLoadInFlight) {
+            mRequestedLoad = LOAD_PREVIOUS_PAGE;
+            forceLoad();
+        }
+    }
+
+    @Override
+    public PageWindow loadInBackground() {
+        int requestedLoad = mRequestedLoad;
+        mRequestedLoad = LOAD_REFRESH;
+        PageWindow window = mWindow;
+
+        if (window == null || window.rows.isEmpty()) {
+            return loadFirstPage();
+        }
+        switch (requestedLoad) {
+            case LOAD_NEXT_PAGE:
+                return loadNextPage(window);
+            case LOAD_PREVIOUS_PAGE:
+                return loadPreviousPage(window);
+            default:
+                return reloadWindow(window);
+        }
+    }
+
+    private PageWindow loadFirstPage() {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                mLocationSetting, mStartDate, mPageSize + 1);
+        List<ForecastRow> rows = query(uri, SORT_ASCENDING);
+        boolean hasNextPage = trimToSize(rows, mPageSize);
+        List<List<ForecastRow>> pages = new ArrayList<List<ForecastRow>>();
+        if (!rows.isEmpty()) {
+            pages.add(rows);
+        }
+        return new PageWindow(pages, false, hasNextPage, false);
+    }
+
+    private PageWindow loadNextPage(PageWindow window) {
+        long lastDate = window.rows.get(window.rows.size() - 1).date;
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationPageAfter(
+                mLocationSetting, mStartDate, lastDate, mPageSize + 1);
+        List<ForecastRow> rows = query(uri, SORT_ASCENDING);
+        boolean hasNextPage = trimToSize(rows, mPageSize);
+
+        List<List<ForecastRow>> pages = new ArrayList<List<ForecastRow>>(window.pages);
+        boolean hasPreviousPage = window.hasPreviousPage;
+        if (!rows.isEmpty()) {
+            pages.add(rows);
+            if (pages.size() > mMaxResidentPages) {
+                pages.remove(0);
+                hasPreviousPage = true;
+            }
+        }
+        return new PageWindow(pages, hasPreviousPage, hasNextPage, true);
+    }
+
+    private PageWindow loadPreviousPage(PageWindow window) {
+        long firstDate = window.rows.get(0).date;
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationPageBefore(
+                mLocationSetting, mStartDate, firstDate, mPageSize + 1);
+        // Walk backwards from the first resident row, then put the page back in date order.
+        List<ForecastRow> rows = query(uri, SORT_DESCENDING);
+        boolean hasPreviousPage = trimToSize(rows, mPageSize);
+        Collections.reverse(rows);
+
+        List<List<ForecastRow>> pages = new ArrayList<List<ForecastRow>>(window.pages);
+        boolean hasNextPage = window.hasNextPage;
+        if (!rows.isEmpty()) {
+            pages.add(0, rows);
+            if (pages.size() > mMaxResidentPages) {
+                pages.remove(pages.size() - 1);
+                hasNextPage = true;
+            }
+        }
+        return new PageWindow(pages, hasPreviousPage, hasNextPage, true);
+    }
+
+    /**
+     * Re-reads every resident row in a single query starting at the first resident date, and
+     * splits the result back into pages.
+     */
+    private PageWindow reloadWindow(PageWindow window) {
+        long firstDate = Math.max(window.rows.get(0).date,
+                WeatherContract.normalizeDate(mStartDate));
+        int residentRows = window.pages.size() * mPageSize;
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                mLocationSetting, firstDate, residentRows + 1);
+        List<ForecastRow> rows = query(uri, SORT_ASCENDING);
+        boolean hasNextPage = trimToSize(rows, residentRows);
+
+        List<List<ForecastRow>> pages = new ArrayList<List<ForecastRow>>();
+        for (int start = 0; start < rows.size(); start += mPageSize) {
+            pages.add(new ArrayList<ForecastRow>(
+                    rows.subList(start, Math.min(start + mPageSize, rows.size()))));
+        }
+        return new PageWindow(pages, window.hasPreviousPage, hasNextPage, false);
+    }
+
+    /**
+     * Drops rows beyond size.
+     *
+     * @return true if any rows were dropped, i.e. there is more data past this page.
+     */
+    private static boolean trimToSize(List<ForecastRow> rows, int size) {
+        boolean trimmed = false;
+        while (rows.size() > size) {
+            rows.remove(rows.size() - 1);
+            trimmed = true;
+        }
+        return trimmed;
+    }
+
+    private List<ForecastRow> query(Uri uri, String sortOrder) {
+        List<ForecastRow> rows = new ArrayList<ForecastRow>();
+        Cursor cursor = getContext().getContentResolver().query(
+                uri, mProjection, null, null, sortOrder);
+        if (cursor == null) {
+            return rows;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(ForecastRow.fromCursor(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    @Override
+    protected void onForceLoad() {
+        mLoadInFlight = true;
+        super.onForceLoad();
+    }
+
+    @Override
+    public void deliverResult(PageWindow window) {
+        mLoadInFlight = false;
+        if (isReset()) {
+            return;
+        }
+        mWindow = window;
+        if (isStarted()) {
+            super.deliverResult(window);
+        }
+    }
+
+    @Override
+    public void onCanceled(PageWindow window) {
+        mLoadInFlight = false;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mWindow != null) {
+            deliverResult(mWindow);
+        }
+        if (takeContentChanged() || mWindow == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mWindow = null;
+    }
+}
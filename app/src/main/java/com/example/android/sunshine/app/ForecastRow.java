@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+
+/**
+ * {@link ForecastRow} is an immutable snapshot of one row of the forecast list.  The adapter keeps
+ * these instead of a {@link Cursor} so that two successive loads can be compared without holding
+ * on to a cursor the loader is free to close.
+ */
+public class ForecastRow {
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    public final long id;
+    public final long date;
+    public final String locationSetting;
+    public final int weatherId;
+    public final String description;
+    public final double high;
+    public final double low;
+    public final String coordLat;
+    public final String coordLong;
+
+    public ForecastRow(String locationSetting, long date, int weatherId, String description,
+                       double high, double low, String coordLat, String coordLong) {
+        this.id = getStableId(locationSetting, date);
+        this.date = date;
+        this.locationSetting = locationSetting;
+        this.weatherId = weatherId;
+        this.description = description;
+        this.high = high;
+        this.low = low;
+        this.coordLat = coordLat;
+        this.coordLong = coordLong;
+    }
+
+    /**
+     * Reads the row the cursor is currently positioned on.  The cursor must have been queried
+     * with {@link ForecastFragment}'s forecast projection.
+     */
+    public static ForecastRow fromCursor(Cursor cursor) {
+        return new ForecastRow(
+                cursor.getString(ForecastFragment.COL_LOCATION_SETTING),
+                cursor.getLong(ForecastFragment.COL_WEATHER_DATE),
+                cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                cursor.getString(ForecastFragment.COL_WEATHER_DESC),
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                cursor.getString(ForecastFragment.COL_COORD_LAT),
+                cursor.getString(ForecastFragment.COL_COORD_LONG));
+    }
+
+    /**
+     * The weather table's _id changes every time a day is re-inserted (the table resolves
+     * conflicts with REPLACE), so the id we hand to the RecyclerView is derived from the
+     * (location, date) pair instead, which is the table's real unique key.
+     */
+    public static long getStableId(String locationSetting, long date) {
+        long day = date / DAY_IN_MILLIS;
+        int locationHash = locationSetting == null ? 0 : locationSetting.hashCode();
+        return ((long) locationHash << 32) | (day & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ForecastRow)) return false;
+        ForecastRow that = (ForecastRow) o;
+        return date == that.date
+                && weatherId == that.weatherId
+                && Double.compare(that.high, high) == 0
+                && Double.compare(that.low, low) == 0
+                && equals(locationSetting, that.locationSetting)
+                && equals(description, that.description)
+                && equals(coordLat, that.coordLat)
+                && equals(coordLong, that.coordLong);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + weatherId;
+        long temp = Double.doubleToLongBits(high);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(low);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        return result;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
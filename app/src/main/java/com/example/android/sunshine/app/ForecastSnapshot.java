@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A read-only copy of the first page of a location's forecast, written at the end of every sync,
+ * so the forecast list has rows to show on a cold start before the database has even been
+ * opened.  {@link ForecastPageLoader} replaces those rows with the real ones once it finishes.
+ *
+ * Each location's snapshot is one small file, laid out column by column so that reading it is a
+ * handful of bulk copies out of a memory-mapped buffer.
+ *
+ * File format, version 1, big-endian:
+ * <pre>
+ *     byte    version
+ *     string  location setting
+ *     string  latitude
+ *     string  longitude
+ *     int     row count
+ *     long    date of each row, normalized
+ *     int     weather condition id of each row
+ *     double  high temperature of each row
+ *     double  low temperature of each row
+ *     string  description of each row
+ * </pre>
+ * where a string is an unsigned short byte count followed by that many bytes of UTF-8.
+ */
+public class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final byte VERSION = 1;
+    private static final String DIRECTORY_NAME = "snapshots";
+    private static final String FILE_SUFFIX = ".snapshot";
+    private static final String CHARSET = "UTF-8";
+    // Snapshots of locations the user has moved away from are dropped past this many.
+    private static final int MAX_SNAPSHOTS = 8;
+
+    private ForecastSnapshot() {
+    }
+
+    /**
+     * Reads the snapshot of locationSetting's forecast.  Small enough to read on the main
+     * thread, which is the point of it.
+     *
+     * @param startDate rows before this date's day are left out
+     * @return the rows, or null if there is no usable snapshot for locationSetting.
+     */
+    public static List<ForecastRow> read(Context context, String locationSetting, long startDate) {
+        File file = getFile(context, locationSetting);
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer, locationSetting, WeatherContract.normalizeDate(startDate));
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to read forecast snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces locationSetting's snapshot with the first page of its forecast as currently
+     * stored.  The old snapshot stays in place until the new one is completely written.  Queries
+     * the provider, so must not be called on the main thread.
+     */
+    public static void write(Context context, String locationSetting) {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationPage(locationSetting,
+                System.currentTimeMillis(), ForecastPageLoader.DEFAULT_PAGE_SIZE);
+        Cursor cursor = context.getContentResolver().query(uri, ForecastFragment.FORECAST_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        List<ForecastRow> rows = new ArrayList<ForecastRow>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(ForecastRow.fromCursor(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        File file = getFile(context, locationSetting);
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            byte[] snapshot = encode(locationSetting, rows);
+            file.getParentFile().mkdirs();
+            out = new FileOutputStream(tempFile);
+            out.write(snapshot);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to write forecast snapshot", e);
+            tempFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        pruneSnapshots(file.getParentFile());
+    }
+
+    static byte[] encode(String locationSetting, List<ForecastRow> rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        writeString(out, locationSetting);
+        writeString(out, rows.isEmpty() ? "" : rows.get(0).coordLat);
+        writeString(out, rows.isEmpty() ? "" : rows.get(0).coordLong);
+        out.writeInt(rows.size());
+        for (ForecastRow row : rows) {
+            out.writeLong(row.date);
+        }
+        for (ForecastRow row : rows) {
+            out.writeInt(row.weatherId);
+        }
+        for (ForecastRow row : rows) {
+            out.writeDouble(row.high);
+        }
+        for (ForecastRow row : rows) {
+            out.writeDouble(row.low);
+        }
+        for (ForecastRow row : rows) {
+            writeString(out, row.description);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the rows from startDate on, or null if buffer isn't a snapshot of locationSetting.
+     */
+    static List<ForecastRow> decode(ByteBuffer buffer, String locationSetting, long startDate)
+            throws IOException {
+        try {
+            if (buffer.get() != VERSION || !locationSetting.equals(readString(buffer))) {
+                return null;
+            }
+            String coordLat = readString(buffer);
+            String coordLong = readString(buffer);
+            int count = buffer.getInt();
+
+            long[] dates = new long[count];
+            int[] weatherIds = new int[count];
+            double[] highs = new double[count];
+            double[] lows = new double[count];
+            buffer.asLongBuffer().get(dates);
+            buffer.position(buffer.position() + count * 8);
+            buffer.asIntBuffer().get(weatherIds);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asDoubleBuffer().get(highs);
+            buffer.position(buffer.position() + count * 8);
+            buffer.asDoubleBuffer().get(lows);
+            buffer.position(buffer.position() + count * 8);
+
+            List<ForecastRow> rows = new ArrayList<ForecastRow>(count);
+            for (int i = 0; i < count; i++) {
+                String description = readString(buffer);
+                // Days that have passed since the sync aren't shown any more.
+                if (dates[i] >= startDate) {
+                    rows.add(new ForecastRow(locationSetting, dates[i], weatherIds[i], description,
+                            highs[i], lows[i], coordLat, coordLong));
+                }
+            }
+            return rows.isEmpty() ? null : rows;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated forecast snapshot", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(CHARSET);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static File getFile(Context context, String locationSetting) {
+        // Any two settings sharing a hash just overwrite each other's snapshot; the location
+        // stored inside tells them apart on read.
+        return new File(new File(context.getFilesDir(), DIRECTORY_NAME),
+                Integer.toHexString(locationSetting.hashCode()) + FILE_SUFFIX);
+    }
+
+    private static void pruneSnapshots(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_SNAPSHOTS) {
+            return;
+        }
+        // Newest first, so everything past MAX_SNAPSHOTS is for locations left longest ago.
+        Arrays.sort(files, Collections.reverseOrder(new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+            }
+        }));
+        for (int i = MAX_SNAPSHOTS; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+}
@@ -28,8 +28,9 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  Granular
+ * adapter notifications (inserts, removals and moves) shift the selection directly, so only a
+ * full data set change needs to search for checked IDs again.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,8 +45,60 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        @Override
+        public void onItemRangeInserted(final int positionStart, final int itemCount) {
+            remapCheckedPositions(new PositionMapper() {
+                @Override
+                public int map(int position) {
+                    return position >= positionStart ? position + itemCount : position;
+                }
+            });
+        }
+
+        @Override
+        public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+            remapCheckedPositions(new PositionMapper() {
+                @Override
+                public int map(int position) {
+                    if (position < positionStart) {
+                        return position;
+                    } else if (position < positionStart + itemCount) {
+                        return RecyclerView.NO_POSITION;
+                    }
+                    return position - itemCount;
+                }
+            });
+        }
+
+        @Override
+        public void onItemRangeMoved(final int fromPosition, final int toPosition, int itemCount) {
+            // RecyclerView only ever reports single item moves.
+            remapCheckedPositions(new PositionMapper() {
+                @Override
+                public int map(int position) {
+                    if (position == fromPosition) {
+                        return toPosition;
+                    } else if (fromPosition < toPosition
+                            && position > fromPosition && position <= toPosition) {
+                        return position - 1;
+                    } else if (toPosition < fromPosition
+                            && position >= toPosition && position < fromPosition) {
+                        return position + 1;
+                    }
+                    return position;
+                }
+            });
+        }
     };
 
+    private interface PositionMapper {
+        /**
+         * @return the new position of an item, or RecyclerView.NO_POSITION if it was removed.
+         */
+        int map(int position);
+    }
+
     private ItemChoiceManager() {
     }
 
@@ -53,6 +106,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -188,6 +242,31 @@ public class ItemChoiceManager {
         }
     }
 
+    /**
+     * Moves the checked positions (and the last known positions of checked IDs) through a
+     * granular adapter change.  This costs one pass over the checked items, independent of how
+     * large the data set is.
+     */
+    void remapCheckedPositions(PositionMapper mapper) {
+        SparseBooleanArray remapped = new SparseBooleanArray(mCheckStates.size());
+        for (int i = 0; i < mCheckStates.size(); i++) {
+            int newPosition = mapper.map(mCheckStates.keyAt(i));
+            if (newPosition != RecyclerView.NO_POSITION) {
+                remapped.put(newPosition, mCheckStates.valueAt(i));
+            }
+        }
+        mCheckStates = remapped;
+
+        for (int i = mCheckedIdStates.size() - 1; i >= 0; i--) {
+            int newPosition = mapper.map(mCheckedIdStates.valueAt(i));
+            if (newPosition == RecyclerView.NO_POSITION) {
+                mCheckedIdStates.removeAt(i);
+            } else {
+                mCheckedIdStates.setValueAt(i, newPosition);
+            }
+        }
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
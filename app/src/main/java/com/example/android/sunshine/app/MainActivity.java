@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
@@ -28,14 +29,20 @@ import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.SubMenu;
 import android.view.View;
 
+import com.example.android.sunshine.app.art.ArtPackBundle;
+import com.example.android.sunshine.app.data.RecentLocations;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
 
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -45,10 +52,14 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
 
     private boolean mTwoPane;
     private String mLocation;
+    // The locations listed in the recent locations menu, by item id.
+    private List<RecentLocations.Location> mRecentLocations;
+    private StartupOrchestrator mStartup;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.mark(StartupTrace.ACTIVITY_CREATED);
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
 
@@ -89,8 +100,37 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
+        // Nothing below is needed to show the forecast, so it waits for the first frame.
+        mStartup = new StartupOrchestrator(this);
+        final Context appContext = getApplicationContext();
+        mStartup.deferToBackground(new Runnable() {
+            @Override
+            public void run() {
+                SunshineSyncAdapter.initializeSyncAdapter(appContext);
+            }
+        });
+        mStartup.deferToBackground(new Runnable() {
+            @Override
+            public void run() {
+                Utility.addRecentLocation(appContext);
+            }
+        });
+        mStartup.deferToBackground(new Runnable() {
+            @Override
+            public void run() {
+                // Read the selected art pack's index now, so art binds never have to.
+                ArtPackBundle.getSelected(appContext);
+            }
+        });
+        mStartup.deferToIdle(new Runnable() {
+            @Override
+            public void run() {
+                registerGcmIfNeeded();
+            }
+        });
+    }
 
+    private void registerGcmIfNeeded() {
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
         // our fake server. Because weather alerts are not a core feature of the app, this should
@@ -109,6 +149,11 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         }
     }
 
+    @Override
+    public void onForecastDrawn() {
+        mStartup.reportFullyDrawn();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -123,6 +168,11 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         // as you specify a parent activity in AndroidManifest.xml.
         int id = item.getItemId();
 
+        if (item.getGroupId() == R.id.action_recent_locations && null != mRecentLocations) {
+            switchToLocation(mRecentLocations.get(id));
+            return true;
+        }
+
         //noinspection SimplifiableIfStatement
         if (id == R.id.action_settings) {
             startActivity(new Intent(this, SettingsActivity.class));
@@ -135,9 +185,58 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Every recent location but the one being shown, to switch straight to.
+        MenuItem recentItem = menu.findItem(R.id.action_recent_locations);
+        SubMenu recentMenu = recentItem.getSubMenu();
+        recentMenu.clear();
+        String location = Utility.getPreferredLocation(this);
+        mRecentLocations = new ArrayList<RecentLocations.Location>();
+        for (RecentLocations.Location recent :
+                RecentLocations.get(this, Utility.getRecentLocationsSize(this))) {
+            if (!recent.setting.equals(location)) {
+                recentMenu.add(R.id.action_recent_locations, mRecentLocations.size(),
+                        mRecentLocations.size(), recent.setting);
+                mRecentLocations.add(recent);
+            }
+        }
+        recentItem.setVisible(!mRecentLocations.isEmpty());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    /**
+     * Makes location the preferred one.  Its forecast is already in the database, so it shows
+     * at once; it is only synced if that forecast is no longer fresh.
+     */
+    private void switchToLocation(RecentLocations.Location location) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(this).edit();
+        editor.putString(getString(R.string.pref_location_key), location.setting);
+        if (location.latLonAvailable) {
+            editor.putFloat(getString(R.string.pref_location_latitude), location.latitude);
+            editor.putFloat(getString(R.string.pref_location_longitude), location.longitude);
+        } else {
+            editor.remove(getString(R.string.pref_location_latitude));
+            editor.remove(getString(R.string.pref_location_longitude));
+        }
+        editor.commit();
+
+        Utility.syncIfStale(this, location.setting);
+        updateLocation();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
+        updateLocation();
+    }
+
+    /**
+     * Points the forecast and detail panes at the preferred location, if it has changed since
+     * they were last shown.
+     */
+    private void updateLocation() {
         String location = Utility.getPreferredLocation( this );
         // update the location in our second pane using the fragment manager
             if (location != null && !location.equals(mLocation)) {
@@ -150,6 +249,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                 df.onLocationChanged(location);
             }
             mLocation = location;
+            Utility.addRecentLocation(this);
         }
     }
 
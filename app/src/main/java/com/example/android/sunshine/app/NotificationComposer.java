@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds and posts Sunshine's notifications: the daily forecast from the sync adapter and
+ * weather alerts from GCM.
+ *
+ * Both are built on the composer's own thread, one at a time, so posting one never holds up the
+ * caller; the sync adapter in particular can finish its sync while the large icon is still
+ * loading.  Large icons are decoded at the size the system shows them and kept in a small LRU
+ * keyed by the art they show, so the next notification for the same condition doesn't decode
+ * anything.
+ */
+public class NotificationComposer {
+    private static final String LOG_TAG = NotificationComposer.class.getSimpleName();
+
+    // Allows the forecast notification to be updated later on.
+    private static final int FORECAST_NOTIFICATION_ID = 3004;
+    private static final int ALERT_NOTIFICATION_ID = 1;
+
+    // Enough for every piece of condition art plus the alert icon.
+    private static final int MAX_LARGE_ICONS = WeatherArtLoader.ART_CONDITION_COUNT + 1;
+
+    private static volatile NotificationComposer sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<String, Bitmap> mLargeIcons =
+            new LruCache<String, Bitmap>(MAX_LARGE_ICONS);
+    private final int mLargeIconWidth;
+    private final int mLargeIconHeight;
+
+    public static NotificationComposer getInstance(Context context) {
+        NotificationComposer instance = sInstance;
+        if (null == instance) {
+            synchronized (NotificationComposer.class) {
+                instance = sInstance;
+                if (null == instance) {
+                    instance = new NotificationComposer(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private NotificationComposer(Context context) {
+        mContext = context;
+        Resources resources = context.getResources();
+        mLargeIconWidth =
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        mLargeIconHeight =
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+    }
+
+    /**
+     * Posts today's forecast, then records it as the day's notification.  Returns at once.
+     *
+     * @param high in degrees Celsius
+     * @param low in degrees Celsius
+     */
+    public void notifyForecast(final int weatherId, final String description, final double high,
+                               final double low) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                postForecast(weatherId, description, high, low);
+            }
+        });
+    }
+
+    /**
+     * Posts a weather alert.  Returns at once.
+     */
+    public void notifyAlert(final String message) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                postAlert(message);
+            }
+        });
+    }
+
+    private void postForecast(int weatherId, String description, double high, double low) {
+        Resources resources = mContext.getResources();
+        Object artModel = WeatherArtLoader.getArtModel(mContext, weatherId);
+        Bitmap largeIcon = getLargeIcon(artModel,
+                Utility.getArtResourceForWeatherCondition(weatherId));
+        String title = mContext.getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(mContext.getString(R.string.format_notification),
+                description,
+                Utility.formatTemperature(mContext, high),
+                Utility.formatTemperature(mContext, low));
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
+                .setColor(resources.getColor(R.color.primary_light))
+                .setSmallIcon(Utility.getIconResourceForWeatherCondition(weatherId))
+                .setLargeIcon(largeIcon)
+                .setContentTitle(title)
+                .setContentText(contentText);
+
+        // Opening the app is sufficient.  The stack builder gives the activity an artificial back
+        // stack, so navigating backward from it leads out of the app to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(mContext);
+        stackBuilder.addNextIntent(new Intent(mContext, MainActivity.class));
+        builder.setContentIntent(
+                stackBuilder.getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT));
+
+        getNotificationManager().notify(FORECAST_NOTIFICATION_ID, builder.build());
+
+        //refreshing last sync
+        SettingsRepository.getInstance(mContext).setLastNotification(System.currentTimeMillis());
+    }
+
+    private void postAlert(String message) {
+        PendingIntent contentIntent = PendingIntent.getActivity(mContext, 0,
+                new Intent(mContext, MainActivity.class), 0);
+
+        // Generally, you want to use the app icon as the small icon, so that users understand
+        // what app is triggering this notification.
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
+                .setSmallIcon(R.drawable.art_clear)
+                .setLargeIcon(getLargeIcon(R.drawable.art_storm, R.drawable.art_storm))
+                .setContentTitle("Weather Alert!")
+                .setStyle(new NotificationCompat.BigTextStyle().bigText(message))
+                .setContentText(message)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setContentIntent(contentIntent);
+        getNotificationManager().notify(ALERT_NOTIFICATION_ID, builder.build());
+    }
+
+    /**
+     * @param artModel what to hand Glide: a url, art pack art, or a drawable resource id
+     * @param fallbackResId drawable to decode if artModel can't be loaded
+     * @return the large icon showing artModel, from the LRU if it has been shown before.  Must
+     * not be called on the main thread.
+     */
+    private Bitmap getLargeIcon(Object artModel, int fallbackResId) {
+        // Art pack art and urls both have a toString that identifies the art.
+        String key = String.valueOf(artModel);
+        Bitmap largeIcon = mLargeIcons.get(key);
+        if (null != largeIcon) {
+            return largeIcon;
+        }
+        try {
+            // The future is never cleared, so Glide never hands this bitmap out again.
+            largeIcon = Glide.with(mContext)
+                    .load(artModel)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(mLargeIconWidth, mLargeIconHeight).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artModel, e);
+            // The art itself isn't cached, so that it is tried again next time.
+            return decodeLargeIcon(fallbackResId);
+        }
+        mLargeIcons.put(key, largeIcon);
+        return largeIcon;
+    }
+
+    /**
+     * Decodes resId no larger than the large icon needs, rather than at full size.
+     */
+    private Bitmap decodeLargeIcon(int resId) {
+        String key = "fallback:" + resId;
+        Bitmap largeIcon = mLargeIcons.get(key);
+        if (null != largeIcon) {
+            return largeIcon;
+        }
+        Resources resources = mContext.getResources();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mLargeIconWidth
+                && options.outHeight / (sampleSize * 2) >= mLargeIconHeight) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        largeIcon = BitmapFactory.decodeResource(resources, resId, options);
+        if (null != largeIcon) {
+            mLargeIcons.put(key, largeIcon);
+        }
+        return largeIcon;
+    }
+
+    private NotificationManager getNotificationManager() {
+        return (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+}
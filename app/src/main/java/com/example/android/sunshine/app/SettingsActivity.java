@@ -29,6 +29,8 @@ import android.text.TextUtils;
 import android.view.View;
 import android.widget.ImageView;
 
+import com.example.android.sunshine.app.art.ArtPackDownloadService;
+import com.example.android.sunshine.app.data.PlaceBucketCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
@@ -59,6 +61,7 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_recent_locations_key)));
 
         // If we are using a PlacePicker location, we need to show attributions.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -165,8 +168,8 @@ public class SettingsActivity extends PreferenceActivity
                 mAttribution.setVisibility(View.GONE);
             }
 
-            Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            Utility.syncIfStale(this, sharedPreferences.getString(key,
+                    getString(R.string.pref_location_default)));
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -177,6 +180,8 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // and fetch the new pack once, so art stops depending on the network
+            ArtPackDownloadService.startIfNeeded(this);
         }
     }
 
@@ -202,18 +207,25 @@ public class SettingsActivity extends PreferenceActivity
                     address = String.format("(%.2f, %.2f)",latLong.latitude, latLong.longitude);
                 }
 
+                // Places picked close to one picked before are the same location as it, so
+                // they share its stored forecast instead of each adding their own.
+                String bucket = PlaceBucketCache.getBucket(latLong.latitude, latLong.longitude);
+                String locationSetting =
+                        PlaceBucketCache.getLocationSetting(this, bucket, address);
+                double[] bucketCenter = PlaceBucketCache.getBucketCenter(bucket);
+
                 SharedPreferences sharedPreferences =
                         PreferenceManager.getDefaultSharedPreferences(this);
                 SharedPreferences.Editor editor = sharedPreferences.edit();
-                editor.putString(getString(R.string.pref_location_key), address);
+                editor.putString(getString(R.string.pref_location_key), locationSetting);
 
                 // Also store the latitude and longitude so that we can use these to get a precise
                 // result from our weather service. We cannot expect the weather service to
                 // understand addresses that Google formats.
                 editor.putFloat(getString(R.string.pref_location_latitude),
-                        (float) latLong.latitude);
+                        (float) bucketCenter[0]);
                 editor.putFloat(getString(R.string.pref_location_longitude),
-                        (float) latLong.longitude);
+                        (float) bucketCenter[1]);
                 editor.commit();
 
                 // Tell the SyncAdapter that we've changed the location, so that we can update
@@ -221,7 +233,7 @@ public class SettingsActivity extends PreferenceActivity
                 // to the PlacePicker widget result here instead of allowing the
                 // LocationEditTextPreference to handle these changes and invoke our callbacks.
                 Preference locationPreference = findPreference(getString(R.string.pref_location_key));
-                setPreferenceSummary(locationPreference, address);
+                setPreferenceSummary(locationPreference, locationSetting);
 
                 // Add attributions for our new PlacePicker location.
                 if (mAttribution != null) {
@@ -233,8 +245,7 @@ public class SettingsActivity extends PreferenceActivity
                             Snackbar.LENGTH_LONG).show();
                 }
 
-                Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                Utility.syncIfStale(this, locationSetting);
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The settings read on hot paths, such as every row bind, held as one immutable
+ * {@link Snapshot} that is rebuilt whenever a preference changes.  Reading a setting is then a
+ * field load, instead of a preferences lookup plus a string resource lookup for its key.
+ *
+ * Writes made through here show up in the snapshot right away, but reach SharedPreferences
+ * together: every write made before the main thread next gets to them goes out in one
+ * asynchronous apply().
+ */
+public class SettingsRepository implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    /**
+     * The settings as they were at one moment.  Never changes; a new one replaces it instead.
+     */
+    public static final class Snapshot {
+        public final String locationSetting;
+        public final boolean latLonAvailable;
+        public final float latitude;
+        public final float longitude;
+        public final boolean metric;
+        public final String artPackUrlFormat;
+        public final boolean localGraphics;
+        @SunshineSyncAdapter.LocationStatus
+        public final int locationStatus;
+        public final boolean notificationsEnabled;
+        public final long lastNotification;
+        public final int recentLocationsSize;
+
+        Snapshot(String locationSetting, boolean latLonAvailable, float latitude,
+                 float longitude, boolean metric, String artPackUrlFormat, boolean localGraphics,
+                 @SunshineSyncAdapter.LocationStatus int locationStatus,
+                 boolean notificationsEnabled, long lastNotification, int recentLocationsSize) {
+            this.locationSetting = locationSetting;
+            this.latLonAvailable = latLonAvailable;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.metric = metric;
+            this.artPackUrlFormat = artPackUrlFormat;
+            this.localGraphics = localGraphics;
+            this.locationStatus = locationStatus;
+            this.notificationsEnabled = notificationsEnabled;
+            this.lastNotification = lastNotification;
+            this.recentLocationsSize = recentLocationsSize;
+        }
+    }
+
+    private static volatile SettingsRepository sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Keys and defaults, resolved once.
+    private final String mLocationKey;
+    private final String mLocationDefault;
+    private final String mLatitudeKey;
+    private final String mLongitudeKey;
+    private final String mUnitsKey;
+    private final String mUnitsMetric;
+    private final String mArtPackKey;
+    private final String mArtPackSunshine;
+    private final String mLocationStatusKey;
+    private final String mNotificationsKey;
+    private final boolean mNotificationsDefault;
+    private final String mLastNotificationKey;
+    private final String mRecentLocationsKey;
+    private final String mRecentLocationsDefault;
+
+    private volatile Snapshot mSnapshot;
+    // Guarded by this.  Written to the snapshot straight away, to SharedPreferences by flush().
+    private final Map<String, Object> mPendingWrites = new HashMap<String, Object>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static SettingsRepository getInstance(Context context) {
+        SettingsRepository instance = sInstance;
+        if (null == instance) {
+            synchronized (SettingsRepository.class) {
+                instance = sInstance;
+                if (null == instance) {
+                    instance = new SettingsRepository(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private SettingsRepository(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mLocationKey = context.getString(R.string.pref_location_key);
+        mLocationDefault = context.getString(R.string.pref_location_default);
+        mLatitudeKey = context.getString(R.string.pref_location_latitude);
+        mLongitudeKey = context.getString(R.string.pref_location_longitude);
+        mUnitsKey = context.getString(R.string.pref_units_key);
+        mUnitsMetric = context.getString(R.string.pref_units_metric);
+        mArtPackKey = context.getString(R.string.pref_art_pack_key);
+        mArtPackSunshine = context.getString(R.string.pref_art_pack_sunshine);
+        mLocationStatusKey = context.getString(R.string.pref_location_status_key);
+        mNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+        mNotificationsDefault = Boolean.parseBoolean(
+                context.getString(R.string.pref_enable_notifications_default));
+        mLastNotificationKey = context.getString(R.string.pref_last_notification);
+        mRecentLocationsKey = context.getString(R.string.pref_recent_locations_key);
+        mRecentLocationsDefault = context.getString(R.string.pref_recent_locations_3);
+
+        mSnapshot = readSnapshot();
+        // SharedPreferences only holds its listeners weakly; this instance lives as long as
+        // the process, so the registration does too.
+        mPrefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * @return the current settings.  Cheap enough to call per row.
+     */
+    public Snapshot get() {
+        return mSnapshot;
+    }
+
+    public void setLocationStatus(@SunshineSyncAdapter.LocationStatus int locationStatus) {
+        write(mLocationStatusKey, locationStatus);
+    }
+
+    public void setLastNotification(long lastNotification) {
+        write(mLastNotificationKey, lastNotification);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        synchronized (this) {
+            mSnapshot = readSnapshot();
+        }
+    }
+
+    private synchronized void write(String key, Object value) {
+        boolean flushScheduled = !mPendingWrites.isEmpty();
+        mPendingWrites.put(key, value);
+        mSnapshot = readSnapshot();
+        if (!flushScheduled) {
+            mMainHandler.post(mFlush);
+        }
+    }
+
+    private synchronized void flush() {
+        if (mPendingWrites.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (Map.Entry<String, Object> write : mPendingWrites.entrySet()) {
+            Object value = write.getValue();
+            if (value instanceof Integer) {
+                editor.putInt(write.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(write.getKey(), (Long) value);
+            }
+        }
+        mPendingWrites.clear();
+        editor.apply();
+    }
+
+    /**
+     * Reads every setting, with writes not yet flushed taking precedence.  Must hold this.
+     */
+    @SuppressWarnings("ResourceType")
+    private Snapshot readSnapshot() {
+        Object pendingStatus = mPendingWrites.get(mLocationStatusKey);
+        Object pendingLastNotification = mPendingWrites.get(mLastNotificationKey);
+        String artPackUrlFormat = mPrefs.getString(mArtPackKey, mArtPackSunshine);
+        return new Snapshot(
+                mPrefs.getString(mLocationKey, mLocationDefault),
+                mPrefs.contains(mLatitudeKey) && mPrefs.contains(mLongitudeKey),
+                mPrefs.getFloat(mLatitudeKey, Utility.DEFAULT_LATLONG),
+                mPrefs.getFloat(mLongitudeKey, Utility.DEFAULT_LATLONG),
+                mPrefs.getString(mUnitsKey, mUnitsMetric).equals(mUnitsMetric),
+                artPackUrlFormat,
+                artPackUrlFormat.equals(mArtPackSunshine),
+                null != pendingStatus ? (Integer) pendingStatus
+                        : mPrefs.getInt(mLocationStatusKey,
+                                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN),
+                mPrefs.getBoolean(mNotificationsKey, mNotificationsDefault),
+                null != pendingLastNotification ? (Long) pendingLastNotification
+                        : mPrefs.getLong(mLastNotificationKey, 0),
+                Integer.parseInt(mPrefs.getString(mRecentLocationsKey, mRecentLocationsDefault)));
+    }
+}
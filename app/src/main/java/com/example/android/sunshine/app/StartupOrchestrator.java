@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.os.AsyncTask;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds back the parts of an activity's startup that its first frame doesn't need, so they don't
+ * compete with it for the main thread.
+ *
+ * Work handed to {@link #deferToBackground} and {@link #deferToIdle} waits until the activity has
+ * drawn its first frame.  Background work then runs on the AsyncTask thread pool; idle work runs
+ * on the main thread the next time it has nothing else to do.  Each milestone is recorded in
+ * {@link StartupTrace}.
+ */
+public class StartupOrchestrator {
+    private static final String LOG_TAG = StartupOrchestrator.class.getSimpleName();
+
+    private final Activity mActivity;
+    private final List<Runnable> mBackgroundWork = new ArrayList<Runnable>();
+    private final List<Runnable> mIdleWork = new ArrayList<Runnable>();
+    private boolean mFirstFrameDrawn;
+    private boolean mFullyDrawnReported;
+    private boolean mTraceLogged;
+    private int mPendingWork;
+
+    public StartupOrchestrator(Activity activity) {
+        mActivity = activity;
+
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted, so that the deferred work starts after this frame rather than ahead
+                // of it.
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFirstFrame();
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Runs work on a background thread once the first frame has been drawn.  Must be called on
+     * the main thread.
+     */
+    public void deferToBackground(Runnable work) {
+        if (mFirstFrameDrawn) {
+            runInBackground(work);
+        } else {
+            mBackgroundWork.add(work);
+        }
+    }
+
+    /**
+     * Runs work on the main thread the first time it is idle after the first frame has been
+     * drawn.  For work that has to touch the activity.  Must be called on the main thread.
+     */
+    public void deferToIdle(Runnable work) {
+        if (mFirstFrameDrawn) {
+            runWhenIdle(work);
+        } else {
+            mIdleWork.add(work);
+        }
+    }
+
+    /**
+     * Tells the system, and the trace, that the activity now shows its real content.  Only the
+     * first call has an effect.
+     */
+    public void reportFullyDrawn() {
+        if (mFullyDrawnReported) {
+            return;
+        }
+        mFullyDrawnReported = true;
+        try {
+            mActivity.reportFullyDrawn();
+        } catch (SecurityException e) {
+            // Some releases require UPDATE_DEVICE_STATS for this; the trace still records it.
+            Log.d(LOG_TAG, "reportFullyDrawn not permitted", e);
+        }
+        StartupTrace.mark(StartupTrace.FULLY_DRAWN);
+        logIfDone();
+    }
+
+    private void onFirstFrame() {
+        mFirstFrameDrawn = true;
+        StartupTrace.mark(StartupTrace.FIRST_DRAW);
+        for (Runnable work : mBackgroundWork) {
+            runInBackground(work);
+        }
+        for (Runnable work : mIdleWork) {
+            runWhenIdle(work);
+        }
+        mBackgroundWork.clear();
+        mIdleWork.clear();
+        logIfDone();
+    }
+
+    private void runInBackground(final Runnable work) {
+        mPendingWork++;
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                work.run();
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                onWorkDone();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void runWhenIdle(final Runnable work) {
+        mPendingWork++;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                if (!mActivity.isFinishing()) {
+                    work.run();
+                }
+                onWorkDone();
+                return false;
+            }
+        });
+    }
+
+    private void onWorkDone() {
+        mPendingWork--;
+        logIfDone();
+    }
+
+    private void logIfDone() {
+        if (mFirstFrameDrawn && mPendingWork == 0) {
+            StartupTrace.mark(StartupTrace.DEFERRED_DONE);
+        }
+        if (mFullyDrawnReported && mFirstFrameDrawn && mPendingWork == 0 && !mTraceLogged) {
+            mTraceLogged = true;
+            Log.i(LOG_TAG, "Startup: " + StartupTrace.summary());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records when each milestone of the process's cold start was reached, in milliseconds after the
+ * process started.  Only the first time a milestone is reached counts, so a second launch of
+ * {@link MainActivity} in the same process doesn't overwrite the cold start.
+ */
+public class StartupTrace {
+
+    public static final String ACTIVITY_CREATED = "activity_created";
+    // The first frame of MainActivity, whatever it shows.
+    public static final String FIRST_DRAW = "first_draw";
+    // The first frame with forecast rows in it, from the snapshot or the database.
+    public static final String FIRST_FORECAST_FRAME = "first_forecast_frame";
+    // The forecast as stored in the database is on screen; reported through reportFullyDrawn.
+    public static final String FULLY_DRAWN = "fully_drawn";
+    // Everything deferred past the first frame has run.
+    public static final String DEFERRED_DONE = "deferred_done";
+
+    // Before N there is no way to ask when the process started, so the trace starts when this
+    // class is first used instead, which is early in MainActivity.onCreate.
+    private static final long sClassLoadedAt = SystemClock.elapsedRealtime();
+
+    private static final Map<String, Long> sMarks = new LinkedHashMap<String, Long>();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Records that milestone was reached now, unless it already has been.
+     */
+    public static synchronized void mark(String milestone) {
+        if (!sMarks.containsKey(milestone)) {
+            sMarks.put(milestone, SystemClock.elapsedRealtime() - getProcessStart());
+        }
+    }
+
+    /**
+     * @return when milestone was reached, in milliseconds after the process started, or -1 if
+     * it hasn't been.
+     */
+    public static synchronized long get(String milestone) {
+        Long millis = sMarks.get(milestone);
+        return null == millis ? -1 : millis;
+    }
+
+    /**
+     * @return every milestone reached so far, in the order they were reached.
+     */
+    public static synchronized String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Long> mark : sMarks.entrySet()) {
+            summary.append(summary.length() == 0 ? "" : ", ")
+                    .append(mark.getKey()).append(' ').append(mark.getValue()).append("ms");
+        }
+        return summary.toString();
+    }
+
+    private static long getProcessStart() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return sClassLoadedAt;
+    }
+}
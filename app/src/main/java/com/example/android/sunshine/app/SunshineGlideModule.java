@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.module.GlideModule;
+import com.example.android.sunshine.app.art.ArtPackModelLoader;
+
+import java.io.InputStream;
+
+/**
+ * Sizes Glide's memory cache and bitmap pool for the weather art we actually show, instead of
+ * the screen-size based defaults, and teaches Glide to read art from a downloaded art pack.
+ * Registered in the manifest.
+ */
+public class SunshineGlideModule implements GlideModule {
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+        builder.setMemoryCache(new LruResourceCache(WeatherArtLoader.getMemoryCacheBudget(context)));
+        builder.setBitmapPool(new LruBitmapPool(WeatherArtLoader.getBitmapPoolBudget(context)));
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        glide.register(ArtPackModelLoader.Art.class, InputStream.class,
+                new ArtPackModelLoader.Factory());
+    }
+}
@@ -16,13 +16,15 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.preference.PreferenceManager;
+import android.os.AsyncTask;
 import android.text.format.Time;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.RecentLocations;
+import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -44,50 +46,39 @@ public class Utility {
     // We'll default our latlong to 0. Yay, "Earth!"
     public static float DEFAULT_LATLONG = 0F;
 
+    // The settings getters below read from SettingsRepository's snapshot, so they are cheap
+    // enough to call for every row bound.
+
     public static boolean isLocationLatLonAvailable(Context context) {
-        SharedPreferences prefs
-                = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.contains(context.getString(R.string.pref_location_latitude))
-                && prefs.contains(context.getString(R.string.pref_location_longitude));
+        return SettingsRepository.getInstance(context).get().latLonAvailable;
     }
 
     public static float getLocationLatitude(Context context) {
-        SharedPreferences prefs
-                = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getFloat(context.getString(R.string.pref_location_latitude),
-                DEFAULT_LATLONG);
+        return SettingsRepository.getInstance(context).get().latitude;
     }
 
     public static float getLocationLongitude(Context context) {
-        SharedPreferences prefs
-                = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getFloat(context.getString(R.string.pref_location_longitude),
-                DEFAULT_LATLONG);
+        return SettingsRepository.getInstance(context).get().longitude;
     }
 
     public static String getPreferredLocation(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_location_key),
-                context.getString(R.string.pref_location_default));
+        return SettingsRepository.getInstance(context).get().locationSetting;
+    }
+
+    /**
+     * @return how many recently shown locations, the current one included, the sync keeps the
+     * forecast of.
+     */
+    public static int getRecentLocationsSize(Context context) {
+        return SettingsRepository.getInstance(context).get().recentLocationsSize;
     }
 
     public static boolean isMetric(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_units_key),
-                context.getString(R.string.pref_units_metric))
-                .equals(context.getString(R.string.pref_units_metric));
+        return SettingsRepository.getInstance(context).get().metric;
     }
 
     public static String formatTemperature(Context context, double temperature) {
-        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
-        // the values here.
-        String suffix = "\u00B0";
-        if (!isMetric(context)) {
-            temperature = (temperature * 1.8) + 32;
-        }
-
-        // For presentation, assume the user doesn't care about tenths of a degree.
-        return String.format(context.getString(R.string.format_temperature), temperature);
+        return WeatherFormatter.getInstance(context).formatTemperature(temperature);
     }
 
     static String formatDate(long dateInMilliseconds) {
@@ -203,36 +194,7 @@ public class Utility {
     }
 
     public static String getFormattedWind(Context context, float windSpeed, float degrees) {
-        int windFormat;
-        if (Utility.isMetric(context)) {
-            windFormat = R.string.format_wind_kmh;
-        } else {
-            windFormat = R.string.format_wind_mph;
-            windSpeed = .621371192237334f * windSpeed;
-        }
-
-        // From wind direction in degrees, determine compass direction as a string (e.g NW)
-        // You know what's fun, writing really long if/else statements with tons of possible
-        // conditions.  Seriously, try it!
-        String direction = "Unknown";
-        if (degrees >= 337.5 || degrees < 22.5) {
-            direction = "N";
-        } else if (degrees >= 22.5 && degrees < 67.5) {
-            direction = "NE";
-        } else if (degrees >= 67.5 && degrees < 112.5) {
-            direction = "E";
-        } else if (degrees >= 112.5 && degrees < 157.5) {
-            direction = "SE";
-        } else if (degrees >= 157.5 && degrees < 202.5) {
-            direction = "S";
-        } else if (degrees >= 202.5 && degrees < 247.5) {
-            direction = "SW";
-        } else if (degrees >= 247.5 && degrees < 292.5) {
-            direction = "W";
-        } else if (degrees >= 292.5 && degrees < 337.5) {
-            direction = "NW";
-        }
-        return String.format(context.getString(windFormat), windSpeed, direction);
+        return WeatherFormatter.getInstance(context).formatWind(windSpeed, degrees);
     }
 
     /**
@@ -277,12 +239,17 @@ public class Utility {
      * @return true if Sunshine is using local graphics, false otherwise.
      */
     public static boolean usingLocalGraphics(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
-        return prefs.getString(context.getString(R.string.pref_art_pack_key),
-                sunshineArtPack).equals(sunshineArtPack);
+        return SettingsRepository.getInstance(context).get().localGraphics;
     }
 
+    /**
+     * Every art slug a remote art pack provides, i.e. every value
+     * {@link #getArtSlugForWeatherCondition(int)} can return.
+     */
+    public static final String[] ART_SLUGS = {
+            "storm", "light_rain", "rain", "snow", "fog", "clear", "light_clouds", "clouds"
+    };
+
     /**
      * Helper method to provide the art urls according to the weather condition id returned
      * by the OpenWeatherMap call.
@@ -292,34 +259,56 @@ public class Utility {
      * @return url for the corresponding weather artwork. null if no relation is found.
      */
     public static String getArtUrlForWeatherCondition(Context context, int weatherId) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
-                context.getString(R.string.pref_art_pack_sunshine));
+        String slug = getArtSlugForWeatherCondition(weatherId);
+        if (null == slug) {
+            return null;
+        }
+        return getArtUrlForSlug(getArtPackUrlFormat(context), slug);
+    }
 
+    /**
+     * @return the url format of the selected art pack; "%s" stands for the art slug.
+     */
+    public static String getArtPackUrlFormat(Context context) {
+        return SettingsRepository.getInstance(context).get().artPackUrlFormat;
+    }
+
+    public static String getArtUrlForSlug(String formatArtUrl, String slug) {
+        return String.format(Locale.US, formatArtUrl, slug);
+    }
+
+    /**
+     * Helper method to provide the name art packs use for the art of a weather condition id
+     * returned by the OpenWeatherMap call.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     * @return one of {@link #ART_SLUGS}, or null if no relation is found.
+     */
+    public static String getArtSlugForWeatherCondition(int weatherId) {
         // Based on weather code data found at:
         // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
         if (weatherId >= 200 && weatherId <= 232) {
-            return String.format(Locale.US, formatArtUrl, "storm");
+            return "storm";
         } else if (weatherId >= 300 && weatherId <= 321) {
-            return String.format(Locale.US, formatArtUrl, "light_rain");
+            return "light_rain";
         } else if (weatherId >= 500 && weatherId <= 504) {
-            return String.format(Locale.US, formatArtUrl, "rain");
+            return "rain";
         } else if (weatherId == 511) {
-            return String.format(Locale.US, formatArtUrl, "snow");
+            return "snow";
         } else if (weatherId >= 520 && weatherId <= 531) {
-            return String.format(Locale.US, formatArtUrl, "rain");
+            return "rain";
         } else if (weatherId >= 600 && weatherId <= 622) {
-            return String.format(Locale.US, formatArtUrl, "snow");
+            return "snow";
         } else if (weatherId >= 701 && weatherId <= 761) {
-            return String.format(Locale.US, formatArtUrl, "fog");
+            return "fog";
         } else if (weatherId == 761 || weatherId == 781) {
-            return String.format(Locale.US, formatArtUrl, "storm");
+            return "storm";
         } else if (weatherId == 800) {
-            return String.format(Locale.US, formatArtUrl, "clear");
+            return "clear";
         } else if (weatherId == 801) {
-            return String.format(Locale.US, formatArtUrl, "light_clouds");
+            return "light_clouds";
         } else if (weatherId >= 802 && weatherId <= 804) {
-            return String.format(Locale.US, formatArtUrl, "clouds");
+            return "clouds";
         }
         return null;
     }
@@ -590,25 +579,83 @@ public class Utility {
 
     /**
      *
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the settings
      * @return the location status integer type
      */
-    @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
     int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return SettingsRepository.getInstance(c).get().locationStatus;
     }
 
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the settings
      */
     static public void resetLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        SettingsRepository.getInstance(c).setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * Starts a sync for a location that has just become the preferred one, unless it is a recent
+     * location whose forecast was synced moments ago, which the forecast list can show as is.
+     * @param c Context used to get the settings
+     * @param locationSetting the new preferred location
+     */
+    static public void syncIfStale(Context c, final String locationSetting){
+        RecentLocations.Location recent = RecentLocations.find(c, locationSetting);
+        if (null == recent || !recent.isFresh(System.currentTimeMillis())) {
+            resetLocationStatus(c);
+            SunshineSyncAdapter.syncImmediately(c);
+            return;
+        }
+        // The sync time outlives the forecast it was for, which an upgrade drops with the rest
+        // of the database, so a fresh location only counts once its rows are there too.
+        final Context appContext = c.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!hasForecast(appContext, locationSetting)) {
+                    resetLocationStatus(appContext);
+                    SunshineSyncAdapter.syncImmediately(appContext);
+                    return;
+                }
+                SettingsRepository.getInstance(appContext)
+                        .setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_OK);
+                // No sync is coming to move the widgets, Muzei and the watch over to the new
+                // location, so they are told here.
+                SunshineSyncAdapter.notifyForecastChanged(appContext, locationSetting);
+            }
+        });
+    }
+
+    /**
+     * @return whether the database holds any forecast for locationSetting from today on.  Must
+     * not be called on the main thread.
+     */
+    static boolean hasForecast(Context c, String locationSetting) {
+        Cursor cursor = c.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                        locationSetting, System.currentTimeMillis(), 1),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (null == cursor) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Moves the preferred location to the front of the recent locations, so the sync keeps its
+     * forecast once another location is preferred.
+     * @param c Context used to get the settings
+     */
+    static public void addRecentLocation(Context c){
+        SettingsRepository.Snapshot settings = SettingsRepository.getInstance(c).get();
+        RecentLocations.add(c, settings.locationSetting, settings.latLonAvailable,
+                settings.latitude, settings.longitude, settings.recentLocationsSize);
     }
 
     public static void putConfigDataItem(GoogleApiClient googleApiClient, DataMap newConfig) {
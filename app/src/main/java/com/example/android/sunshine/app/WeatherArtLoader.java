@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.widget.ImageView;
+
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.art.ArtPackBundle;
+import com.example.android.sunshine.app.art.ArtPackModelLoader;
+
+/**
+ * Loads the remote weather condition art for the forecast list and the detail view.
+ *
+ * There are only a handful of pieces of condition art, one per {@link Utility#ART_SLUGS} entry,
+ * each shown at two sizes (the list icon and the "today" icon), so rather than letting Glide
+ * pick generic cache sizes and decode at whatever size the view happens to measure, we decode
+ * at exactly those two sizes and size the memory cache to hold every one of them.  See
+ * {@link SunshineGlideModule}.  Once the selected art pack has been downloaded, art is read
+ * from its {@link ArtPackBundle} instead of the network.
+ *
+ * The hit and miss counters cover requests made to display art, not preloads, and are only
+ * touched on the main thread.
+ */
+public class WeatherArtLoader {
+
+    // Distinct pieces of art behind Utility.getArtUrlForWeatherCondition.
+    static final int ART_CONDITION_COUNT = Utility.ART_SLUGS.length;
+    // Decoded bitmaps are ARGB_8888.
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static int sMemoryCacheHits;
+    private static int sMemoryCacheMisses;
+    private static int sLoadFailures;
+    private static int sPreloadsRequested;
+
+    private static final RequestListener<Object, GlideDrawable> sCountingListener =
+            new RequestListener<Object, GlideDrawable>() {
+                @Override
+                public boolean onException(Exception e, Object model, Target<GlideDrawable> target,
+                                           boolean isFirstResource) {
+                    sLoadFailures++;
+                    // Let the request fall through to its error drawable.
+                    return false;
+                }
+
+                @Override
+                public boolean onResourceReady(GlideDrawable resource, Object model,
+                                               Target<GlideDrawable> target,
+                                               boolean isFromMemoryCache, boolean isFirstResource) {
+                    if (isFromMemoryCache) {
+                        sMemoryCacheHits++;
+                    } else {
+                        sMemoryCacheMisses++;
+                    }
+                    return false;
+                }
+            };
+
+    /**
+     * Loads the art for weatherId into view, decoded at sizePx square.
+     *
+     * @param errorResId drawable shown if the art can't be fetched
+     */
+    public static void loadArt(RequestManager requestManager, Context context, int weatherId,
+                               int errorResId, int sizePx, ImageView view) {
+        buildArtRequest(requestManager, context, weatherId, sizePx)
+                .error(errorResId)
+                .listener(sCountingListener)
+                .crossFade()
+                .into(view);
+    }
+
+    /**
+     * Decodes the art for weatherId at sizePx into the memory cache, so that a later
+     * {@link #loadArt} for the same art and size is a cache hit.
+     */
+    public static void preloadArt(Context context, int weatherId, int sizePx) {
+        sPreloadsRequested++;
+        // Preloads aren't tied to any screen's lifecycle.
+        buildArtRequest(Glide.with(context.getApplicationContext()), context, weatherId, sizePx)
+                .into(new PreloadTarget(sizePx));
+    }
+
+    /**
+     * The part of the request that decides what ends up in the memory cache, shared by
+     * {@link #loadArt} and {@link #preloadArt} so that their cache keys always match.  The
+     * transformation is part of the key, so it is set here rather than left to Glide to infer
+     * from the ImageView's scale type, which a preload doesn't have.
+     */
+    private static DrawableRequestBuilder<Object> buildArtRequest(RequestManager requestManager,
+                                                                  Context context, int weatherId,
+                                                                  int sizePx) {
+        return requestManager
+                .load(getArtModel(context, weatherId))
+                .override(sizePx, sizePx)
+                .fitCenter();
+    }
+
+    /**
+     * @return what to hand Glide to load the art for weatherId: the art in the downloaded
+     * {@link ArtPackBundle} when there is one, otherwise its url.
+     */
+    public static Object getArtModel(Context context, int weatherId) {
+        String slug = Utility.getArtSlugForWeatherCondition(weatherId);
+        // Only ever the bundle already read, since this runs for every row bound.  Until it has
+        // been read, by ArtPackDownloadService, the art comes from its url.
+        ArtPackBundle bundle = ArtPackBundle.getCachedSelected(context);
+        if (null != slug && null != bundle && bundle.contains(slug)) {
+            return new ArtPackModelLoader.Art(bundle, slug);
+        }
+        return Utility.getArtUrlForWeatherCondition(context, weatherId);
+    }
+
+    public static int getListIconSize(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+    }
+
+    public static int getTodayIconSize(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.today_icon);
+    }
+
+    /**
+     * @return bytes needed to keep every piece of art decoded at both sizes, capped at an
+     * eighth of the app's heap.
+     */
+    static int getMemoryCacheBudget(Context context) {
+        int listIconSize = getListIconSize(context);
+        int todayIconSize = getTodayIconSize(context);
+        int allArtBytes = ART_CONDITION_COUNT * BYTES_PER_PIXEL *
+                (listIconSize * listIconSize + todayIconSize * todayIconSize);
+        return Math.min(allArtBytes, getHeapBytes(context) / 8);
+    }
+
+    /**
+     * @return bytes of evicted bitmaps to keep for reuse.  Every art bitmap is one of two sizes,
+     * so a handful of each is enough to decode into without allocating.
+     */
+    static int getBitmapPoolBudget(Context context) {
+        return getMemoryCacheBudget(context) / 2;
+    }
+
+    private static int getHeapBytes(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024 * 1024;
+    }
+
+    public static int getMemoryCacheHits() {
+        return sMemoryCacheHits;
+    }
+
+    public static int getMemoryCacheMisses() {
+        return sMemoryCacheMisses;
+    }
+
+    public static int getLoadFailures() {
+        return sLoadFailures;
+    }
+
+    public static int getPreloadsRequested() {
+        return sPreloadsRequested;
+    }
+
+    public static void resetCounters() {
+        sMemoryCacheHits = 0;
+        sMemoryCacheMisses = 0;
+        sLoadFailures = 0;
+        sPreloadsRequested = 0;
+    }
+
+    /**
+     * Releases the decoded art as soon as it arrives, which returns it to the memory cache.
+     */
+    private static class PreloadTarget extends SimpleTarget<GlideDrawable> {
+        PreloadTarget(int sizePx) {
+            super(sizePx, sizePx);
+        }
+
+        @Override
+        public void onResourceReady(GlideDrawable resource,
+                                    GlideAnimation<? super GlideDrawable> glideAnimation) {
+            Glide.clear(this);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * Turns temperatures and winds into the strings shown for them, by looking them up in tables
+ * instead of formatting them each time.
+ *
+ * Every whole temperature a forecast realistically shows, -90 to 60 degrees Celsius and the
+ * same temperatures in Fahrenheit, is rendered once up front.  Wind strings are rendered the
+ * first time each speed and compass point comes up.  The tables are rebuilt when the units
+ * setting or the default locale changes; values outside them are formatted as before.
+ *
+ * A looked up string is the one String.format gives for the same value, with one exception:
+ * values from -0.5 to 0 show as "0°" rather than "-0°".
+ */
+public class WeatherFormatter {
+
+    private static final int MIN_CELSIUS = -90;
+    private static final int MAX_CELSIUS = 60;
+    // The rendered range has to cover both units, so it runs from -130 (-90C) to 140 (60C).
+    private static final int MIN_TEMPERATURE = (int) Math.floor(toFahrenheit(MIN_CELSIUS));
+    private static final int MAX_TEMPERATURE = (int) Math.ceil(toFahrenheit(MAX_CELSIUS));
+    // In km/h or mph, whichever is displayed.
+    private static final int MAX_WIND_SPEED = 200;
+
+    private static final String[] COMPASS_POINTS = {
+            "N", "NE", "E", "SE", "S", "SW", "W", "NW", "Unknown"
+    };
+    private static final int COMPASS_UNKNOWN = COMPASS_POINTS.length - 1;
+
+    /**
+     * Everything rendered for one units setting and locale.
+     */
+    private static final class Tables {
+        final boolean metric;
+        final Locale locale;
+        final String temperatureFormat;
+        final String windFormat;
+        // Indexed by the rounded temperature minus MIN_TEMPERATURE.
+        final String[] temperatures;
+        // Indexed by rounded speed * COMPASS_POINTS.length + compass point; filled as needed.
+        final String[] winds;
+
+        Tables(Context context, boolean metric, Locale locale) {
+            this.metric = metric;
+            this.locale = locale;
+            temperatureFormat = context.getString(R.string.format_temperature);
+            windFormat = context.getString(
+                    metric ? R.string.format_wind_kmh : R.string.format_wind_mph);
+            temperatures = new String[MAX_TEMPERATURE - MIN_TEMPERATURE + 1];
+            for (int i = 0; i < temperatures.length; i++) {
+                temperatures[i] = String.format(temperatureFormat, (double) (MIN_TEMPERATURE + i));
+            }
+            winds = new String[(MAX_WIND_SPEED + 1) * COMPASS_POINTS.length];
+        }
+    }
+
+    private static volatile WeatherFormatter sInstance;
+
+    private final Context mContext;
+    private volatile Tables mTables;
+
+    public static WeatherFormatter getInstance(Context context) {
+        WeatherFormatter instance = sInstance;
+        if (null == instance) {
+            synchronized (WeatherFormatter.class) {
+                instance = sInstance;
+                if (null == instance) {
+                    instance = new WeatherFormatter(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private WeatherFormatter(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @param temperature in degrees Celsius, as stored
+     * @return temperature in the user's units, to the whole degree, e.g. "23°"
+     */
+    public String formatTemperature(double temperature) {
+        Tables tables = getTables();
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!tables.metric) {
+            temperature = toFahrenheit(temperature);
+        }
+
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        long rounded = roundHalfUp(temperature);
+        if (rounded < MIN_TEMPERATURE || rounded > MAX_TEMPERATURE) {
+            return String.format(tables.temperatureFormat, temperature);
+        }
+        return tables.temperatures[(int) rounded - MIN_TEMPERATURE];
+    }
+
+    /**
+     * @param windSpeed in km/h, as stored
+     * @param degrees meteorological direction the wind comes from
+     * @return speed in the user's units and compass point, e.g. "12 km/h NW"
+     */
+    public String formatWind(float windSpeed, float degrees) {
+        Tables tables = getTables();
+        if (!tables.metric) {
+            windSpeed = .621371192237334f * windSpeed;
+        }
+
+        int compassPoint = getCompassPoint(degrees);
+        long rounded = roundHalfUp(windSpeed);
+        if (rounded < 0 || rounded > MAX_WIND_SPEED) {
+            return String.format(tables.windFormat, windSpeed, COMPASS_POINTS[compassPoint]);
+        }
+        int index = (int) rounded * COMPASS_POINTS.length + compassPoint;
+        String wind = tables.winds[index];
+        if (null == wind) {
+            // Racing threads render the same string, so whichever write lands is fine.
+            wind = String.format(tables.windFormat, (float) rounded, COMPASS_POINTS[compassPoint]);
+            tables.winds[index] = wind;
+        }
+        return wind;
+    }
+
+    private static int getCompassPoint(float degrees) {
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return 0;
+        } else if (degrees < 337.5) {
+            // Each point covers 45 degrees centred on it, N's being split across 0.
+            return (int) ((degrees + 22.5) / 45);
+        }
+        return COMPASS_UNKNOWN;
+    }
+
+    private Tables getTables() {
+        boolean metric = SettingsRepository.getInstance(mContext).get().metric;
+        Locale locale = Locale.getDefault();
+        Tables tables = mTables;
+        if (null == tables || tables.metric != metric || !tables.locale.equals(locale)) {
+            tables = new Tables(mContext, metric, locale);
+            mTables = tables;
+        }
+        return tables;
+    }
+
+    private static double toFahrenheit(double celsius) {
+        return (celsius * 1.8) + 32;
+    }
+
+    /**
+     * Rounds the way "%1.0f" does, halves away from zero.  Unlike it, a negative value that
+     * rounds to zero loses its sign.
+     */
+    private static long roundHalfUp(double value) {
+        return value < 0 ? -(long) Math.floor(-value + 0.5) : (long) Math.floor(value + 0.5);
+    }
+}
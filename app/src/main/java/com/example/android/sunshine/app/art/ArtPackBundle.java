@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * All the art of one remote art pack, stored in a single file so that showing art never has to
+ * wait on the network once the pack has been downloaded by {@link ArtPackDownloadService}.
+ *
+ * The file is a small header and index followed by the art exactly as it was downloaded:
+ * <pre>
+ *     int    magic
+ *     int    version
+ *     UTF    art pack url format
+ *     int    entry count
+ *     entry count times:  UTF slug, int offset, int length
+ *     the art itself, at the offsets given in the index
+ * </pre>
+ * Only the index is read when the bundle is opened; art is read with a single seek when Glide
+ * asks for it.
+ */
+public class ArtPackBundle {
+    private static final String LOG_TAG = ArtPackBundle.class.getSimpleName();
+
+    private static final int MAGIC = 0x53554e41; // "SUNA"
+    private static final int VERSION = 1;
+    private static final String FILE_PREFIX = "artpack_";
+    private static final String FILE_SUFFIX = ".bin";
+
+    private final File mFile;
+    private final String mPackUrlFormat;
+    private final Map<String, int[]> mIndex;
+
+    // The bundle for the selected art pack, or null if it hasn't been downloaded.  Only
+    // meaningful while sCachedPackUrlFormat matches the selected pack.  Written under the class
+    // lock; sCachedBundle is also read without it by getCachedSelected.
+    private static String sCachedPackUrlFormat;
+    private static volatile ArtPackBundle sCachedBundle;
+
+    private ArtPackBundle(File file, String packUrlFormat, Map<String, int[]> index) {
+        mFile = file;
+        mPackUrlFormat = packUrlFormat;
+        mIndex = index;
+    }
+
+    /**
+     * @return the bundle for the art pack currently selected in settings, or null if that pack
+     * has not been downloaded yet.  The index is read from disk once per pack and then cached,
+     * so this must not be called on the main thread; see {@link #getCachedSelected(Context)}.
+     */
+    public static synchronized ArtPackBundle getSelected(Context context) {
+        String packUrlFormat = Utility.getArtPackUrlFormat(context);
+        if (!packUrlFormat.equals(sCachedPackUrlFormat)) {
+            sCachedPackUrlFormat = packUrlFormat;
+            sCachedBundle = null;
+            File file = getBundleFile(context, packUrlFormat);
+            if (file.exists()) {
+                try {
+                    sCachedBundle = open(file);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Discarding unreadable art pack " + file, e);
+                    file.delete();
+                }
+            }
+        }
+        return sCachedBundle;
+    }
+
+    /**
+     * @return the bundle for the art pack currently selected in settings if a
+     * {@link #getSelected(Context)} has already read it, otherwise null.  Never touches the disk
+     * or waits on a lock, so it is cheap enough for every row bound.
+     */
+    public static ArtPackBundle getCachedSelected(Context context) {
+        ArtPackBundle bundle = sCachedBundle;
+        if (null != bundle
+                && bundle.mPackUrlFormat.equals(Utility.getArtPackUrlFormat(context))) {
+            return bundle;
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the cached bundle, so that the next {@link #getSelected(Context)} looks on disk
+     * again.  Call after writing a bundle.
+     */
+    static synchronized void invalidate() {
+        sCachedPackUrlFormat = null;
+        sCachedBundle = null;
+    }
+
+    static File getBundleFile(Context context, String packUrlFormat) {
+        return new File(context.getFilesDir(),
+                FILE_PREFIX + Integer.toHexString(packUrlFormat.hashCode()) + FILE_SUFFIX);
+    }
+
+    static boolean isBundleFile(File file) {
+        String name = file.getName();
+        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+    }
+
+    static ArtPackBundle open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an art pack bundle: " + file);
+            }
+            String packUrlFormat = in.readUTF();
+            int count = in.readInt();
+            Map<String, int[]> index = new HashMap<String, int[]>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String slug = in.readUTF();
+                int offset = in.readInt();
+                int length = in.readInt();
+                index.put(slug, new int[]{offset, length});
+            }
+            return new ArtPackBundle(file, packUrlFormat, index);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes art, keyed by slug, as the bundle for packUrlFormat.  The bundle is written to a
+     * temporary file and renamed into place, so readers never see a partial bundle.
+     */
+    static void write(File file, String packUrlFormat, LinkedHashMap<String, byte[]> art)
+            throws IOException {
+        // Work out the size of the header so that the index can hold absolute offsets.
+        DataOutputStream sizer = new DataOutputStream(new ByteArrayOutputStream());
+        sizer.writeInt(MAGIC);
+        sizer.writeInt(VERSION);
+        sizer.writeUTF(packUrlFormat);
+        sizer.writeInt(art.size());
+        for (String slug : art.keySet()) {
+            sizer.writeUTF(slug);
+            sizer.writeInt(0);
+            sizer.writeInt(0);
+        }
+        int offset = sizer.size();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(packUrlFormat);
+            out.writeInt(art.size());
+            for (Map.Entry<String, byte[]> entry : art.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(offset);
+                out.writeInt(entry.getValue().length);
+                offset += entry.getValue().length;
+            }
+            for (byte[] bytes : art.values()) {
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to move art pack into place: " + file);
+        }
+    }
+
+    public String getPackUrlFormat() {
+        return mPackUrlFormat;
+    }
+
+    public boolean contains(String slug) {
+        return mIndex.containsKey(slug);
+    }
+
+    /**
+     * @return the art stored for slug, exactly as it was downloaded.
+     */
+    public byte[] read(String slug) throws IOException {
+        int[] entry = mIndex.get(slug);
+        if (null == entry) {
+            throw new IOException("No art for " + slug + " in " + mFile);
+        }
+        byte[] bytes = new byte[entry[1]];
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            file.seek(entry[0]);
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+
+/**
+ * Downloads every piece of art in the selected remote art pack once, and stores it as an
+ * {@link ArtPackBundle}.  Bundles for packs that are no longer selected are deleted.
+ */
+public class ArtPackDownloadService extends IntentService {
+    private static final String LOG_TAG = ArtPackDownloadService.class.getSimpleName();
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    public ArtPackDownloadService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Starts a download if a remote art pack is selected and hasn't been downloaded yet.  If it
+     * has been downloaded but not yet read, the service reads it instead, so that art is shown
+     * from it.  Safe to call on the main thread.
+     */
+    public static void startIfNeeded(Context context) {
+        if (Utility.usingLocalGraphics(context)
+                || null != ArtPackBundle.getCachedSelected(context)) {
+            return;
+        }
+        context.startService(new Intent(context, ArtPackDownloadService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (Utility.usingLocalGraphics(this)) {
+            return;
+        }
+        String packUrlFormat = Utility.getArtPackUrlFormat(this);
+        File bundleFile = ArtPackBundle.getBundleFile(this, packUrlFormat);
+        if (bundleFile.exists()) {
+            // Read here, off the main thread, so binding art only ever reads the cache.
+            ArtPackBundle.getSelected(this);
+            return;
+        }
+
+        // Only write complete packs.  If any art fails to download, we try again the next time
+        // we're asked to, and until then the art keeps coming from the network.
+        LinkedHashMap<String, byte[]> art = new LinkedHashMap<String, byte[]>();
+        for (String slug : Utility.ART_SLUGS) {
+            String artUrl = Utility.getArtUrlForSlug(packUrlFormat, slug);
+            try {
+                art.put(slug, download(artUrl));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error downloading art from " + artUrl, e);
+                return;
+            }
+        }
+
+        try {
+            ArtPackBundle.write(bundleFile, packUrlFormat, art);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing art pack " + bundleFile, e);
+            return;
+        }
+        ArtPackBundle.invalidate();
+        ArtPackBundle.getSelected(this);
+        deleteOtherBundles(bundleFile);
+    }
+
+    private void deleteOtherBundles(File keep) {
+        File[] files = getFilesDir().listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if (ArtPackBundle.isBundleFile(file) && !file.equals(keep)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static byte[] download(String artUrl) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(artUrl).openConnection();
+        try {
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + urlConnection.getResponseCode());
+            }
+            InputStream inputStream = urlConnection.getInputStream();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            inputStream.close();
+            return bytes.toByteArray();
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.content.Context;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GenericLoaderFactory;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Lets Glide load {@link ArtPackModelLoader.Art} straight out of an {@link ArtPackBundle}, so
+ * downloaded art goes through the same memory cache, bitmap pool and target-size decoding as
+ * art fetched from the network.
+ */
+public class ArtPackModelLoader implements StreamModelLoader<ArtPackModelLoader.Art> {
+
+    /**
+     * One piece of art in a bundle.  This is the model handed to Glide.
+     */
+    public static final class Art {
+        final ArtPackBundle bundle;
+        final String slug;
+
+        public Art(ArtPackBundle bundle, String slug) {
+            this.bundle = bundle;
+            this.slug = slug;
+        }
+
+        // Used as Glide's cache key, so the same art from the same pack is one cache entry.
+        String getId() {
+            return bundle.getPackUrlFormat() + "#" + slug;
+        }
+
+        @Override
+        public String toString() {
+            return getId();
+        }
+    }
+
+    @Override
+    public DataFetcher<InputStream> getResourceFetcher(final Art model, int width, int height) {
+        return new DataFetcher<InputStream>() {
+            @Override
+            public InputStream loadData(Priority priority) throws Exception {
+                return new ByteArrayInputStream(model.bundle.read(model.slug));
+            }
+
+            @Override
+            public void cleanup() {
+                // Nothing is held open between loadData and cleanup.
+            }
+
+            @Override
+            public String getId() {
+                return model.getId();
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+
+    public static class Factory implements ModelLoaderFactory<Art, InputStream> {
+        @Override
+        public ModelLoader<Art, InputStream> build(Context context, GenericLoaderFactory factories) {
+            return new ArtPackModelLoader();
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+}
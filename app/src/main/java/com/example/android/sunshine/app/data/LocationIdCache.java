@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers which location row _id each location setting maps to, so that code which only
+ * needs the id, like every sync, doesn't have to ask the provider.
+ *
+ * Any change notified on {@link WeatherContract.LocationEntry#CONTENT_URI}, or below it, clears
+ * the cache, since a location row may have been deleted or recreated with a new _id.
+ */
+public class LocationIdCache {
+
+    private static LocationIdCache sInstance;
+
+    private final Map<String, Long> mLocationIds = new HashMap<String, Long>();
+
+    public static synchronized LocationIdCache getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new LocationIdCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private LocationIdCache(Context context) {
+        // No handler: the notification is delivered on a binder thread, which is fine for
+        // clearing a map.
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.LocationEntry.CONTENT_URI, true, new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        clear();
+                    }
+                });
+    }
+
+    /**
+     * @return the cached _id of locationSetting's row, or null if it isn't cached.
+     */
+    public synchronized Long get(String locationSetting) {
+        return mLocationIds.get(locationSetting);
+    }
+
+    public synchronized void put(String locationSetting, long locationId) {
+        mLocationIds.put(locationSetting, locationId);
+    }
+
+    public synchronized void clear() {
+        mLocationIds.clear();
+    }
+}
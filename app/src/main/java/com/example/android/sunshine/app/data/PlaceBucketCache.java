@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Maps places picked with the Place Picker onto location settings, so that places picked near
+ * each other share one location row, one cached forecast, and one query to the weather service.
+ *
+ * Picks are grouped into geohash cells about 5km across, which is finer than the forecast
+ * itself varies.  The first place picked in a cell names it: its address becomes the location
+ * setting for every later pick in the cell, and the cell's centre is what the weather service
+ * is asked about.  The cell to setting lookups are kept in their own small preferences file.
+ */
+public class PlaceBucketCache {
+
+    static final int PRECISION = 5;
+    private static final String PREFS_NAME = "place_buckets";
+
+    private PlaceBucketCache() {
+    }
+
+    /**
+     * @return the geohash of the cell a place picked at lat, lon belongs to.
+     */
+    public static String getBucket(double lat, double lon) {
+        return Geohash.encode(lat, lon, PRECISION);
+    }
+
+    /**
+     * @return the latitude and longitude, in that order, to query the weather for in bucket.
+     */
+    public static double[] getBucketCenter(String bucket) {
+        return Geohash.decodeCenter(bucket);
+    }
+
+    /**
+     * @param address the picked place's address, which names bucket if nothing has yet
+     * @return the location setting for a place picked in bucket.
+     */
+    public static synchronized String getLocationSetting(Context context, String bucket,
+                                                         String address) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String locationSetting = prefs.getString(bucket, null);
+        if (null == locationSetting) {
+            locationSetting = address;
+            prefs.edit().putString(bucket, locationSetting).apply();
+        }
+        return locationSetting;
+    }
+}
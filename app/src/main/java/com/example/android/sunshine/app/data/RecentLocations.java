@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The locations the forecast was last shown for, most recent first, and when each last
+ * synced.  The sync keeps all of them up to date, not just the preferred location, so switching
+ * back to one shows its forecast straight from the database instead of waiting on the network.
+ *
+ * The list is bounded: adding a location past the limit drops the least recently shown one.
+ * It is kept as one JSON array in its own small preferences file.
+ */
+public class RecentLocations {
+    private static final String LOG_TAG = RecentLocations.class.getSimpleName();
+
+    // A forecast synced this recently is not fetched again, whether by switching to its
+    // location or by the sync's pass over the recent locations.
+    public static final long FRESH_MILLIS = 1000 * 60 * 60;
+
+    private static final String PREFS_NAME = "recent_locations";
+    private static final String KEY_LOCATIONS = "locations";
+
+    private static final String JSON_SETTING = "setting";
+    private static final String JSON_LATITUDE = "lat";
+    private static final String JSON_LONGITUDE = "lon";
+    private static final String JSON_LAST_SYNCED = "synced";
+
+    /**
+     * A location as stored in settings: the setting itself and, for places picked with the
+     * Place Picker, the coordinates to query the weather for.
+     */
+    public static final class Location {
+        public final String setting;
+        public final boolean latLonAvailable;
+        public final float latitude;
+        public final float longitude;
+        // 0 if the location has never synced.
+        public final long lastSynced;
+
+        public Location(String setting, boolean latLonAvailable, float latitude,
+                        float longitude, long lastSynced) {
+            this.setting = setting;
+            this.latLonAvailable = latLonAvailable;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.lastSynced = lastSynced;
+        }
+
+        public boolean isFresh(long now) {
+            return now - lastSynced < FRESH_MILLIS;
+        }
+    }
+
+    private RecentLocations() {
+    }
+
+    /**
+     * Moves location to the front of the list, adding it if it isn't there, and drops whatever
+     * no longer fits in maxSize.  A location already in the list keeps its last sync time.
+     */
+    public static synchronized void add(Context context, String setting,
+                                        boolean latLonAvailable, float latitude,
+                                        float longitude, int maxSize) {
+        List<Location> locations = read(context);
+        long lastSynced = 0;
+        for (int i = 0; i < locations.size(); i++) {
+            if (locations.get(i).setting.equals(setting)) {
+                lastSynced = locations.remove(i).lastSynced;
+                break;
+            }
+        }
+        locations.add(0, new Location(setting, latLonAvailable, latitude, longitude,
+                lastSynced));
+        while (locations.size() > maxSize) {
+            locations.remove(locations.size() - 1);
+        }
+        write(context, locations);
+    }
+
+    /**
+     * @return at most maxSize of the recent locations, most recently shown first.
+     */
+    public static synchronized List<Location> get(Context context, int maxSize) {
+        List<Location> locations = read(context);
+        return locations.size() > maxSize
+                ? new ArrayList<Location>(locations.subList(0, maxSize)) : locations;
+    }
+
+    /**
+     * @return the recent location with setting, or null if it isn't one.
+     */
+    public static synchronized Location find(Context context, String setting) {
+        for (Location location : read(context)) {
+            if (location.setting.equals(setting)) {
+                return location;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records that setting's forecast was synced at time.  Does nothing if setting isn't a
+     * recent location.
+     */
+    public static synchronized void setSynced(Context context, String setting, long time) {
+        List<Location> locations = read(context);
+        for (int i = 0; i < locations.size(); i++) {
+            Location location = locations.get(i);
+            if (location.setting.equals(setting)) {
+                locations.set(i, new Location(location.setting, location.latLonAvailable,
+                        location.latitude, location.longitude, time));
+                write(context, locations);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers listener to hear about every change to the recent locations, including their
+     * last sync times.  The preferences only hold a weak reference to it.
+     */
+    public static void registerOnChangeListener(
+            Context context, SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        getPrefs(context).registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    public static void unregisterOnChangeListener(
+            Context context, SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        getPrefs(context).unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    private static List<Location> read(Context context) {
+        List<Location> locations = new ArrayList<Location>();
+        String json = getPrefs(context).getString(KEY_LOCATIONS, null);
+        if (null == json) {
+            return locations;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject object = array.getJSONObject(i);
+                boolean latLonAvailable = object.has(JSON_LATITUDE);
+                locations.add(new Location(object.getString(JSON_SETTING), latLonAvailable,
+                        latLonAvailable ? (float) object.getDouble(JSON_LATITUDE) : 0,
+                        latLonAvailable ? (float) object.getDouble(JSON_LONGITUDE) : 0,
+                        object.optLong(JSON_LAST_SYNCED)));
+            }
+        } catch (JSONException e) {
+            // Nothing in the list can't be rebuilt by showing the locations again.
+            Log.e(LOG_TAG, "Discarding unreadable recent locations", e);
+            locations.clear();
+        }
+        return locations;
+    }
+
+    private static void write(Context context, List<Location> locations) {
+        JSONArray array = new JSONArray();
+        try {
+            for (Location location : locations) {
+                JSONObject object = new JSONObject();
+                object.put(JSON_SETTING, location.setting);
+                if (location.latLonAvailable) {
+                    object.put(JSON_LATITUDE, location.latitude);
+                    object.put(JSON_LONGITUDE, location.longitude);
+                }
+                object.put(JSON_LAST_SYNCED, location.lastSynced);
+                array.put(object);
+            }
+        } catch (JSONException e) {
+            // Only thrown for NaN and infinite coordinates, which settings never holds.
+            Log.e(LOG_TAG, "Unable to store recent locations", e);
+            return;
+        }
+        getPrefs(context).edit().putString(KEY_LOCATIONS, array.toString()).apply();
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -21,6 +21,8 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import java.util.List;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,6 +45,10 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_CHANGES = "changes";
+    public static final String PATH_FORECASTS = "forecasts";
+    public static final String PATH_AGGREGATES = "aggregates";
+    public static final String PATH_HOURLY = "hourly";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,6 +87,11 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Inserting through UPSERT_URI only adds the location if its location setting isn't
+        // stored yet, and returns the URI of the stored row either way.
+        public static final String PATH_UPSERT = "upsert";
+        public static final Uri UPSERT_URI = CONTENT_URI.buildUpon().appendPath(PATH_UPSERT).build();
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -99,6 +110,10 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Index on (location_id, date), used for paged and ranged per-location queries, and
+        // covering the columns aggregated by AggregateEntry queries.
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -144,6 +159,82 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /*
+            Paged queries use keyset pagination: rather than an OFFSET, each page asks for the
+            rows strictly after (or before) the last date it has already seen, so every page
+            costs the same index seek no matter how deep into the history it is.
+         */
+        public static final String PARAM_AFTER_DATE = "after";
+        public static final String PARAM_BEFORE_DATE = "before";
+        public static final String PARAM_LIMIT = "limit";
+        // The page size used in place of a limit that isn't a positive number.
+        public static final int DEFAULT_LIMIT = 14;
+
+        public static Uri buildWeatherLocationPage(
+                String locationSetting, long startDate, int limit) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static Uri buildWeatherLocationPageAfter(
+                String locationSetting, long startDate, long afterDate, int limit) {
+            return buildWeatherLocationPage(locationSetting, startDate, limit).buildUpon()
+                    .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDate)).build();
+        }
+
+        public static Uri buildWeatherLocationPageBefore(
+                String locationSetting, long startDate, long beforeDate, int limit) {
+            return buildWeatherLocationPage(locationSetting, startDate, limit).buildUpon()
+                    .appendQueryParameter(PARAM_BEFORE_DATE, Long.toString(beforeDate)).build();
+        }
+
+        /*
+            Forecasts for several locations at once.  One query, with one join, returns every
+            requested location's rows ordered by location setting and then date, instead of one
+            query per location.
+         */
+        public static final Uri MULTI_LOCATION_CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_FORECASTS).build();
+        public static final String PARAM_LOCATION = "location";
+        public static final String PARAM_END_DATE = "end";
+
+        /**
+         * @param locationSettings the locations to include, or null for every stored location
+         * @param startDate first date to include, or 0 for no lower bound
+         * @param endDate last date to include, or 0 for no upper bound
+         */
+        public static Uri buildWeatherLocationsWithDateRange(
+                String[] locationSettings, long startDate, long endDate) {
+            Uri.Builder builder = MULTI_LOCATION_CONTENT_URI.buildUpon();
+            if (null != locationSettings) {
+                for (String locationSetting : locationSettings) {
+                    builder.appendQueryParameter(PARAM_LOCATION, locationSetting);
+                }
+            }
+            if (startDate != 0) {
+                builder.appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)));
+            }
+            if (endDate != 0) {
+                builder.appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)));
+            }
+            return builder.build();
+        }
+
+        /**
+         * @return the location settings of a multi-location URI.  Empty means every location.
+         */
+        public static List<String> getLocationSettingsFromUri(Uri uri) {
+            return uri.getQueryParameters(PARAM_LOCATION);
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -164,5 +255,287 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getBeforeDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_BEFORE_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the row limit of a paged query, or null if the query is not paged.  A limit
+         * that isn't a positive number gets {@link #DEFAULT_LIMIT} instead.
+         */
+        public static String getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null == limitString || limitString.length() == 0)
+                return null;
+            int limit;
+            try {
+                limit = Integer.parseInt(limitString);
+            } catch (NumberFormatException e) {
+                limit = 0;
+            }
+            return Integer.toString(limit > 0 ? limit : DEFAULT_LIMIT);
+        }
+    }
+
+    /*
+        Inner class that defines the change log.  Every insert, update and delete of a weather or
+        location row appends an entry here, in the same transaction as the change itself, so a
+        consumer that remembers the last entry it has seen can ask for only what changed since,
+        rather than rereading whole tables.
+     */
+    public static final class ChangeEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CHANGES).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        public static final String TABLE_NAME = "changes";
+
+        // The _ID of an entry is its sequence number.  Sequence numbers only ever increase
+        // within one change log, but start over whenever the database is recreated.
+
+        // Table the change was made to, either WeatherEntry.TABLE_NAME or LocationEntry.TABLE_NAME.
+        public static final String COLUMN_TABLE = "table_name";
+        // One of the OPERATION_ values below.
+        public static final String COLUMN_OPERATION = "operation";
+        // Location of the changed row.  For a location row, its own _ID.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Date of the changed weather row.  Null for location rows.
+        public static final String COLUMN_DATE = "date";
+        // What to ask for the changes since this entry with, as "epoch:_ID".  Computed, not
+        // stored.
+        public static final String COLUMN_TOKEN = "token";
+
+        // One row holding a value picked at random whenever the change log is created, so a
+        // token from an earlier change log can be told apart from one from this one even when
+        // their sequence numbers match.
+        public static final String EPOCH_TABLE_NAME = "change_epoch";
+        public static final String COLUMN_EPOCH = "epoch";
+
+        // A weather row replaced because it had the same location and date as a new one is
+        // logged as a single insert, so an insert may also mean "this row has new contents".
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+        // The log no longer reaches back to the token asked for, or the token is from a change
+        // log since recreated.  Reread everything, then continue from this entry's token.
+        public static final String OPERATION_RESET = "reset";
+
+        public static final String PARAM_SINCE = "since";
+
+        /**
+         * @param sinceToken the COLUMN_TOKEN of the last entry already seen, or null for the
+         *                   whole log.
+         */
+        public static Uri buildChangesSinceUri(String sinceToken) {
+            if (null == sinceToken) {
+                return CONTENT_URI;
+            }
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_SINCE, sinceToken).build();
+        }
+
+        /**
+         * @return the token of a changes URI, or null if it asks for the whole log.
+         */
+        public static String getSinceTokenFromUri(Uri uri) {
+            String tokenString = uri.getQueryParameter(PARAM_SINCE);
+            if (null != tokenString && tokenString.length() > 0)
+                return tokenString;
+            else
+                return null;
+        }
+
+        public static String buildToken(long epoch, long id) {
+            return epoch + ":" + id;
+        }
+
+        /**
+         * @return the epoch and sequence number of token, or null if it isn't one.
+         */
+        public static long[] parseToken(String token) {
+            int separator = token.lastIndexOf(':');
+            if (separator <= 0) {
+                return null;
+            }
+            try {
+                return new long[]{Long.parseLong(token.substring(0, separator)),
+                        Long.parseLong(token.substring(separator + 1))};
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /*
+        Inner class that defines aggregate queries over the weather table: the min, max and
+        average of each measurement per location, over days, weeks or months.  These are
+        computed by SQLite, so only one row per period ever reaches the caller.
+     */
+    public static final class AggregateEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_AGGREGATES).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATES;
+
+        // Aggregation periods.  Weeks start on Monday.
+        public static final String PERIOD_DAY = "day";
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        public static final String COLUMN_LOCATION_SETTING = LocationEntry.COLUMN_LOCATION_SETTING;
+        // Earliest stored date within the period.
+        public static final String COLUMN_PERIOD_START = "period_start";
+        // Number of stored days within the period.
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // Lowest daily min, highest daily max, and the average of the daily (min + max) / 2.
+        public static final String COLUMN_TEMP_MIN = "temp_min";
+        public static final String COLUMN_TEMP_MAX = "temp_max";
+        public static final String COLUMN_TEMP_AVG = "temp_avg";
+
+        public static final String COLUMN_HUMIDITY_MIN = "humidity_min";
+        public static final String COLUMN_HUMIDITY_MAX = "humidity_max";
+        public static final String COLUMN_HUMIDITY_AVG = "humidity_avg";
+
+        public static final String COLUMN_PRESSURE_MIN = "pressure_min";
+        public static final String COLUMN_PRESSURE_MAX = "pressure_max";
+        public static final String COLUMN_PRESSURE_AVG = "pressure_avg";
+
+        public static final String COLUMN_WIND_SPEED_MIN = "wind_min";
+        public static final String COLUMN_WIND_SPEED_MAX = "wind_max";
+        public static final String COLUMN_WIND_SPEED_AVG = "wind_avg";
+
+        /**
+         * @param period one of the PERIOD_ constants
+         * @param locationSetting the location to aggregate, or null for every location
+         * @param startDate first date to include, or 0 for no lower bound
+         * @param endDate last date to include, or 0 for no upper bound
+         */
+        public static Uri buildAggregateUri(String period, String locationSetting,
+                                            long startDate, long endDate) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(period);
+            if (null != locationSetting) {
+                builder.appendPath(locationSetting);
+            }
+            if (startDate != 0) {
+                builder.appendQueryParameter(WeatherEntry.COLUMN_DATE,
+                        Long.toString(normalizeDate(startDate)));
+            }
+            if (endDate != 0) {
+                builder.appendQueryParameter(WeatherEntry.PARAM_END_DATE,
+                        Long.toString(normalizeDate(endDate)));
+            }
+            return builder.build();
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the location of an aggregate URI, or null if it covers every location.
+         */
+        public static String getLocationSettingFromUri(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            return segments.size() > 2 ? segments.get(2) : null;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly table, which holds the
+        3-hourly forecast.  There are about 40 of these rows for every daily row, so they are
+        kept small: keyed by hour rather than by millisecond date, and with every measurement
+        stored as an integer scaled by the SCALE_ constant next to it.
+     */
+    public static final class HourlyEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Hours since the epoch, UTC.  Together with the location this is the primary key.
+        public static final String COLUMN_EPOCH_HOUR = "epoch_hour";
+
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Temperature in hundredths of a degree Celsius.
+        public static final String COLUMN_TEMP = "temp";
+        public static final int SCALE_TEMP = 100;
+
+        // Humidity in whole percent.
+        public static final String COLUMN_HUMIDITY = "humidity";
+
+        // Pressure in tenths of a hPa.
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final int SCALE_PRESSURE = 10;
+
+        // Wind speed in hundredths of a m/s.
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final int SCALE_WIND_SPEED = 100;
+
+        // Meteorological degrees (e.g, 0 is north, 180 is south).
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static final String PARAM_START_HOUR = "hour";
+
+        private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+        public static int toEpochHour(long millis) {
+            return (int) (millis / HOUR_IN_MILLIS);
+        }
+
+        public static long fromEpochHour(int epochHour) {
+            return epochHour * HOUR_IN_MILLIS;
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @param startMillis forecasts for the hour containing this time, and every hour after
+         */
+        public static Uri buildHourlyLocationWithStartHour(String locationSetting,
+                                                           long startMillis) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_HOUR,
+                            Integer.toString(toEpochHour(startMillis))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static int getStartHourFromUri(Uri uri) {
+            String hourString = uri.getQueryParameter(PARAM_START_HOUR);
+            if (null != hourString && hourString.length() > 0)
+                return Integer.parseInt(hourString);
+            else
+                return 0;
+        }
     }
 }
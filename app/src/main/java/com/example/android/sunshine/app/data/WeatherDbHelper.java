@@ -19,6 +19,8 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.ChangeEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -28,7 +30,7 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
@@ -79,8 +81,89 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // The UNIQUE constraint above indexes (date, location_id), which can't serve a
+        // "this location, dates after X" range scan.  Paged forecast queries need the columns
+        // the other way around.  The trailing columns are the ones aggregate queries fold, so
+        // those are answered from the index alone without touching the table.
+        final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+                WeatherEntry.INDEX_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ");";
+
+        // The change log.  AUTOINCREMENT, unlike a plain INTEGER PRIMARY KEY, never reuses the
+        // id of a pruned entry, which is what makes the ids usable as sequence numbers.
+        final String SQL_CREATE_CHANGES_TABLE = "CREATE TABLE " + ChangeEntry.TABLE_NAME + " (" +
+                ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                ChangeEntry.COLUMN_TABLE + " TEXT NOT NULL, " +
+                ChangeEntry.COLUMN_OPERATION + " TEXT NOT NULL, " +
+                ChangeEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                ChangeEntry.COLUMN_DATE + " INTEGER " +
+                " );";
+
+        // The change log's epoch, new every time it is created, since its ids then start over.
+        final String SQL_CREATE_CHANGE_EPOCH_TABLE = "CREATE TABLE " +
+                ChangeEntry.EPOCH_TABLE_NAME + " (" +
+                ChangeEntry.COLUMN_EPOCH + " INTEGER NOT NULL);";
+
+        // The 3-hourly forecast.  WITHOUT ROWID stores each row in the primary key's b-tree
+        // itself, so there is no separate rowid to store or second index to keep, and a
+        // location's hours sit together in the order they are read.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_EPOCH_HOUR + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+                " PRIMARY KEY (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_EPOCH_HOUR + ") ON CONFLICT REPLACE" +
+                " ) WITHOUT ROWID;";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_CHANGES_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_EPOCH_TABLE);
+        sqLiteDatabase.execSQL("INSERT INTO " + ChangeEntry.EPOCH_TABLE_NAME + " (" +
+                ChangeEntry.COLUMN_EPOCH + ") VALUES (random());");
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+
+        // Triggers write the log, so every change is logged in the same transaction as the
+        // change itself no matter which provider method made it.
+        sqLiteDatabase.execSQL(buildChangeLogTrigger(WeatherEntry.TABLE_NAME, "INSERT",
+                ChangeEntry.OPERATION_INSERT, "NEW", WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE));
+        sqLiteDatabase.execSQL(buildChangeLogTrigger(WeatherEntry.TABLE_NAME, "UPDATE",
+                ChangeEntry.OPERATION_UPDATE, "NEW", WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE));
+        sqLiteDatabase.execSQL(buildChangeLogTrigger(WeatherEntry.TABLE_NAME, "DELETE",
+                ChangeEntry.OPERATION_DELETE, "OLD", WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE));
+        sqLiteDatabase.execSQL(buildChangeLogTrigger(LocationEntry.TABLE_NAME, "INSERT",
+                ChangeEntry.OPERATION_INSERT, "NEW", LocationEntry._ID, null));
+        sqLiteDatabase.execSQL(buildChangeLogTrigger(LocationEntry.TABLE_NAME, "UPDATE",
+                ChangeEntry.OPERATION_UPDATE, "NEW", LocationEntry._ID, null));
+        sqLiteDatabase.execSQL(buildChangeLogTrigger(LocationEntry.TABLE_NAME, "DELETE",
+                ChangeEntry.OPERATION_DELETE, "OLD", LocationEntry._ID, null));
+    }
+
+    /**
+     * @param row "NEW" for inserts and updates, "OLD" for deletes
+     * @param dateColumn column holding the row's date, or null if it has none
+     */
+    private static String buildChangeLogTrigger(String table, String event, String operation,
+                                                String row, String locationColumn,
+                                                String dateColumn) {
+        return "CREATE TRIGGER " + table + "_log_" + operation + " AFTER " + event +
+                " ON " + table + " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + " (" +
+                ChangeEntry.COLUMN_TABLE + ", " +
+                ChangeEntry.COLUMN_OPERATION + ", " +
+                ChangeEntry.COLUMN_LOC_KEY + ", " +
+                ChangeEntry.COLUMN_DATE + ") VALUES ('" +
+                table + "', '" + operation + "', " +
+                row + "." + locationColumn + ", " +
+                (null == dateColumn ? "NULL" : row + "." + dateColumn) + "); END;";
     }
 
     @Override
@@ -93,6 +176,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ChangeEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ChangeEntry.EPOCH_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
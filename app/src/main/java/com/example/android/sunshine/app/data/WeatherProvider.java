@@ -20,10 +20,18 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
@@ -33,7 +41,18 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_FOR_LOCATIONS = 103;
     static final int LOCATION = 300;
+    static final int LOCATION_UPSERT = 301;
+    static final int CHANGES = 400;
+    static final int AGGREGATES = 500;
+    static final int AGGREGATES_WITH_LOCATION = 501;
+    static final int HOURLY = 600;
+    static final int HOURLY_WITH_LOCATION = 601;
+
+    // Change log entries kept.  Enough for a consumer to miss several syncs of every location
+    // before it has to fall back to rereading everything.
+    static final int MAX_CHANGES = 2000;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,6 +70,21 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+
+    static{
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -68,31 +102,384 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //date > ?
+    private static final String sAfterDateSelection =
+            " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    //date < ?
+    private static final String sBeforeDateSelection =
+            " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        long beforeDate = WeatherContract.WeatherEntry.getBeforeDateFromUri(uri);
+        String limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
+        List<String> selectionArgs = new ArrayList<String>(4);
+        StringBuilder selection;
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            selection = new StringBuilder(sLocationSettingSelection);
+            selectionArgs.add(locationSetting);
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selection = new StringBuilder(sLocationSettingWithStartDateSelection);
+            selectionArgs.add(locationSetting);
+            selectionArgs.add(Long.toString(startDate));
+        }
+
+        // Keyset pagination bounds.  Together with the (location_id, date) index these turn
+        // every page into a range scan that starts right where the previous page ended.
+        if (afterDate != 0) {
+            selection.append(sAfterDateSelection);
+            selectionArgs.add(Long.toString(afterDate));
+        }
+        if (beforeDate != 0) {
+            selection.append(sBeforeDateSelection);
+            selectionArgs.add(Long.toString(beforeDate));
         }
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
-                selection,
-                selectionArgs,
+                selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit
+        );
+    }
+
+    // location.location_setting, date
+    private static final String sLocationSettingAndDateOrder =
+            WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " ASC, " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    private Cursor getWeatherForLocations(Uri uri, String[] projection) {
+        List<String> locationSettings = WeatherContract.WeatherEntry.getLocationSettingsFromUri(uri);
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.WeatherEntry.getEndDateFromUri(uri);
+
+        List<String> selectionArgs = new ArrayList<String>(locationSettings.size() + 2);
+        StringBuilder selection = new StringBuilder();
+
+        //location.location_setting IN (?, ?, ...)
+        if (!locationSettings.isEmpty()) {
+            selection.append(WeatherContract.LocationEntry.TABLE_NAME).append('.')
+                    .append(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                    .append(" IN (");
+            for (int i = 0; i < locationSettings.size(); i++) {
+                selection.append(i == 0 ? "?" : ", ?");
+            }
+            selection.append(')');
+            selectionArgs.addAll(locationSettings);
+        }
+        if (startDate != 0) {
+            selection.append(selection.length() == 0 ? "" : " AND ")
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" >= ?");
+            selectionArgs.add(Long.toString(startDate));
+        }
+        if (endDate != 0) {
+            selection.append(selection.length() == 0 ? "" : " AND ")
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" <= ?");
+            selectionArgs.add(Long.toString(endDate));
+        }
+
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection.length() == 0 ? null : selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                null,
+                sLocationSettingAndDateOrder
+        );
+    }
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Maps each AggregateEntry column to the SQL computing it.
+    private static final Map<String, String> sAggregateProjectionMap = buildAggregateProjectionMap();
+
+    private static Map<String, String> buildAggregateProjectionMap() {
+        final String weather = WeatherContract.WeatherEntry.TABLE_NAME + ".";
+        Map<String, String> map = new HashMap<String, String>();
+        putAggregate(map, WeatherContract.AggregateEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.LocationEntry.TABLE_NAME + "." +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        putAggregate(map, WeatherContract.AggregateEntry.COLUMN_PERIOD_START,
+                "MIN(" + weather + WeatherContract.WeatherEntry.COLUMN_DATE + ")");
+        putAggregate(map, WeatherContract.AggregateEntry.COLUMN_DAY_COUNT, "COUNT(*)");
+        putAggregate(map, WeatherContract.AggregateEntry.COLUMN_TEMP_MIN,
+                "MIN(" + weather + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        putAggregate(map, WeatherContract.AggregateEntry.COLUMN_TEMP_MAX,
+                "MAX(" + weather + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        putAggregate(map, WeatherContract.AggregateEntry.COLUMN_TEMP_AVG,
+                "AVG((" + weather + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " + " +
+                        weather + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") / 2.0)");
+        putMinMaxAvg(map, weather + WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.AggregateEntry.COLUMN_HUMIDITY_MIN,
+                WeatherContract.AggregateEntry.COLUMN_HUMIDITY_MAX,
+                WeatherContract.AggregateEntry.COLUMN_HUMIDITY_AVG);
+        putMinMaxAvg(map, weather + WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.AggregateEntry.COLUMN_PRESSURE_MIN,
+                WeatherContract.AggregateEntry.COLUMN_PRESSURE_MAX,
+                WeatherContract.AggregateEntry.COLUMN_PRESSURE_AVG);
+        putMinMaxAvg(map, weather + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.AggregateEntry.COLUMN_WIND_SPEED_MIN,
+                WeatherContract.AggregateEntry.COLUMN_WIND_SPEED_MAX,
+                WeatherContract.AggregateEntry.COLUMN_WIND_SPEED_AVG);
+        return map;
+    }
+
+    private static void putAggregate(Map<String, String> map, String column, String expression) {
+        map.put(column, expression + " AS " + column);
+    }
+
+    private static void putMinMaxAvg(Map<String, String> map, String source,
+                                     String minColumn, String maxColumn, String avgColumn) {
+        putAggregate(map, minColumn, "MIN(" + source + ")");
+        putAggregate(map, maxColumn, "MAX(" + source + ")");
+        putAggregate(map, avgColumn, "AVG(" + source + ")");
+    }
+
+    /**
+     * @return the SQL expression that is equal for every date within one period.
+     */
+    private static String getPeriodBucket(String period) {
+        final String date = WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                WeatherContract.WeatherEntry.COLUMN_DATE;
+        if (WeatherContract.AggregateEntry.PERIOD_DAY.equals(period)) {
+            return date;
+        } else if (WeatherContract.AggregateEntry.PERIOD_WEEK.equals(period)) {
+            // Dates are local midnights, so rounding gives the calendar day since the epoch.
+            // The epoch was a Thursday; shifting by three makes weeks start on Monday.
+            return "(CAST(ROUND(" + date + " / " + (double) DAY_IN_MILLIS + ") AS INTEGER) + 3) / 7";
+        } else if (WeatherContract.AggregateEntry.PERIOD_MONTH.equals(period)) {
+            return "strftime('%Y-%m', " + date + " / 1000, 'unixepoch', 'localtime')";
+        }
+        throw new UnsupportedOperationException("Unknown aggregation period: " + period);
+    }
+
+    private Cursor getAggregates(Uri uri, String[] projection) {
+        String period = WeatherContract.AggregateEntry.getPeriodFromUri(uri);
+        String locationSetting = WeatherContract.AggregateEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.WeatherEntry.getEndDateFromUri(uri);
+
+        List<String> selectionArgs = new ArrayList<String>(3);
+        StringBuilder selection = new StringBuilder();
+        if (null != locationSetting) {
+            selection.append(sLocationSettingSelection);
+            selectionArgs.add(locationSetting);
+        }
+        if (startDate != 0) {
+            selection.append(selection.length() == 0 ? "" : " AND ")
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" >= ?");
+            selectionArgs.add(Long.toString(startDate));
+        }
+        if (endDate != 0) {
+            selection.append(selection.length() == 0 ? "" : " AND ")
+                    .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" <= ?");
+            selectionArgs.add(Long.toString(endDate));
+        }
+
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(sWeatherByLocationSettingQueryBuilder.getTables());
+        queryBuilder.setProjectionMap(sAggregateProjectionMap);
+        return queryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection.length() == 0 ? null : selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " + getPeriodBucket(period),
+                null,
+                WeatherContract.AggregateEntry.COLUMN_LOCATION_SETTING + " ASC, " +
+                        WeatherContract.AggregateEntry.COLUMN_PERIOD_START + " ASC"
         );
     }
 
+    //location.location_setting = ? AND epoch_hour >= ?
+    private static final String sLocationSettingWithStartHourSelection =
+            WeatherContract.LocationEntry.TABLE_NAME+
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " >= ? ";
+
+    private static final String sHourlySortOrder =
+            WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " ASC";
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        int startHour = WeatherContract.HourlyEntry.getStartHourFromUri(uri);
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithStartHourSelection,
+                new String[]{locationSetting, Integer.toString(startHour)},
+                null,
+                null,
+                null == sortOrder ? sHourlySortOrder : sortOrder
+        );
+    }
+
+    /**
+     * Inserts hourly rows through one compiled statement, rather than having
+     * SQLiteDatabase.insert build and compile the same SQL for each of them.
+     *
+     * @return the number of rows inserted.
+     */
+    private int bulkInsertHourly(SQLiteDatabase db, ContentValues[] values) {
+        final String[] columns = {
+                WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+                WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR,
+                WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+                WeatherContract.HourlyEntry.COLUMN_TEMP,
+                WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+                WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+                WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                WeatherContract.HourlyEntry.COLUMN_DEGREES
+        };
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherContract.HourlyEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+
+        int returnCount = 0;
+        db.beginTransaction();
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            for (ContentValues value : values) {
+                for (int i = 0; i < columns.length; i++) {
+                    Long columnValue = value.getAsLong(columns[i]);
+                    if (null == columnValue) {
+                        throw new IllegalArgumentException("Missing " + columns[i]);
+                    }
+                    statement.bindLong(i + 1, columnValue);
+                }
+                statement.execute();
+                returnCount++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    //_id > ?
+    private static final String sChangesSinceSelection =
+            WeatherContract.ChangeEntry._ID + " > ? ";
+
+    private Cursor getChangesSince(Uri uri, String[] projection) {
+        String sinceToken = WeatherContract.ChangeEntry.getSinceTokenFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        // Read every time rather than cached: the change log may have been recreated since.
+        long epoch = DatabaseUtils.longForQuery(db, "SELECT " +
+                WeatherContract.ChangeEntry.COLUMN_EPOCH + " FROM " +
+                WeatherContract.ChangeEntry.EPOCH_TABLE_NAME, null);
+
+        // Entries up to and including the oldest one's predecessor have been pruned (or never
+        // existed); if the caller hasn't seen them all, its deltas would have a gap.
+        long oldestId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MIN(" +
+                WeatherContract.ChangeEntry._ID + "), 0) FROM " +
+                WeatherContract.ChangeEntry.TABLE_NAME, null);
+        long latestId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" +
+                WeatherContract.ChangeEntry._ID + "), 0) FROM " +
+                WeatherContract.ChangeEntry.TABLE_NAME, null);
+        long sinceId = 0;
+        if (null != sinceToken) {
+            long[] parsed = WeatherContract.ChangeEntry.parseToken(sinceToken);
+            // A token from another epoch was handed out before the change log was recreated,
+            // by an upgrade or by clearing the app's data, and its sequence number means
+            // nothing in this one.
+            if (null == parsed || parsed[0] != epoch) {
+                return buildResetCursor(projection, epoch, latestId);
+            }
+            sinceId = parsed[1];
+        }
+        if ((oldestId > 0 && sinceId < oldestId - 1) || sinceId > latestId) {
+            return buildResetCursor(projection, epoch, latestId);
+        }
+
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(WeatherContract.ChangeEntry.TABLE_NAME);
+        queryBuilder.setProjectionMap(buildChangesProjectionMap(epoch));
+        return queryBuilder.query(db,
+                projection,
+                sChangesSinceSelection,
+                new String[]{Long.toString(sinceId)},
+                null,
+                null,
+                WeatherContract.ChangeEntry._ID + " ASC");
+    }
+
+    private static Map<String, String> buildChangesProjectionMap(long epoch) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (String column : sChangesColumns) {
+            map.put(column, column);
+        }
+        map.put(WeatherContract.ChangeEntry.COLUMN_TOKEN,
+                "'" + epoch + ":' || " + WeatherContract.ChangeEntry._ID + " AS " +
+                        WeatherContract.ChangeEntry.COLUMN_TOKEN);
+        return map;
+    }
+
+    private static final String[] sChangesColumns = new String[]{
+            WeatherContract.ChangeEntry._ID,
+            WeatherContract.ChangeEntry.COLUMN_TABLE,
+            WeatherContract.ChangeEntry.COLUMN_OPERATION,
+            WeatherContract.ChangeEntry.COLUMN_LOC_KEY,
+            WeatherContract.ChangeEntry.COLUMN_DATE,
+            WeatherContract.ChangeEntry.COLUMN_TOKEN
+    };
+
+    private Cursor buildResetCursor(String[] projection, long epoch, long latestId) {
+        if (null == projection) {
+            projection = sChangesColumns;
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (WeatherContract.ChangeEntry._ID.equals(projection[i])) {
+                row[i] = latestId;
+            } else if (WeatherContract.ChangeEntry.COLUMN_TOKEN.equals(projection[i])) {
+                row[i] = WeatherContract.ChangeEntry.buildToken(epoch, latestId);
+            } else if (WeatherContract.ChangeEntry.COLUMN_OPERATION.equals(projection[i])) {
+                row[i] = WeatherContract.ChangeEntry.OPERATION_RESET;
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Drops all but the newest {@link #MAX_CHANGES} change log entries.
+     */
+    private void pruneChanges(SQLiteDatabase db) {
+        db.delete(WeatherContract.ChangeEntry.TABLE_NAME,
+                WeatherContract.ChangeEntry._ID + " <= (SELECT MAX(" +
+                        WeatherContract.ChangeEntry._ID + ") FROM " +
+                        WeatherContract.ChangeEntry.TABLE_NAME + ") - ?",
+                new String[]{Integer.toString(MAX_CHANGES)});
+    }
+
+    /**
+     * Notifies observers of uri, and of the change log, which every write adds to.
+     */
+    private void notifyChange(Uri uri) {
+        getContext().getContentResolver().notifyChange(uri, null);
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.ChangeEntry.CONTENT_URI, null);
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -129,7 +516,19 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
+        matcher.addURI(authority, WeatherContract.PATH_FORECASTS, WEATHER_FOR_LOCATIONS);
+
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_UPSERT, LOCATION_UPSERT);
+
+        matcher.addURI(authority, WeatherContract.PATH_CHANGES, CHANGES);
+
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATES + "/*", AGGREGATES);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATES + "/*/*", AGGREGATES_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
         return matcher;
     }
 
@@ -162,8 +561,18 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_FOR_LOCATIONS:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case CHANGES:
+                return WeatherContract.ChangeEntry.CONTENT_TYPE;
+            case AGGREGATES:
+            case AGGREGATES_WITH_LOCATION:
+                return WeatherContract.AggregateEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,6 +584,7 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
+        Uri notificationUri = uri;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
@@ -187,6 +597,13 @@ public class WeatherProvider extends ContentProvider {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
                 break;
             }
+            // "forecasts"
+            case WEATHER_FOR_LOCATIONS: {
+                retCursor = getWeatherForLocations(uri, projection);
+                // Writes notify the weather URIs, not this one.
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            }
             // "weather"
             case WEATHER: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,11 +630,42 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                notificationUri = WeatherContract.HourlyEntry.CONTENT_URI;
+                break;
+            }
+            // "aggregates/*" and "aggregates/*/*"
+            case AGGREGATES:
+            case AGGREGATES_WITH_LOCATION: {
+                retCursor = getAggregates(uri, projection);
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            }
+            // "changes"
+            case CHANGES: {
+                retCursor = getChangesSince(uri, projection);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
@@ -229,6 +677,7 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        boolean changed = true;
 
         switch (match) {
             case WEATHER: {
@@ -248,10 +697,33 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case LOCATION_UPSERT: {
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = getLocationId(db, values);
+                    if (_id == -1) {
+                        _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    } else {
+                        changed = false;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if ( _id <= 0 )
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        // An upsert of a location that is already stored changes nothing, and shouldn't make
+        // observers requery.
+        if (changed) {
+            notifyChange(uri);
+        }
         return returnUri;
     }
 
@@ -271,16 +743,45 @@ public class WeatherProvider extends ContentProvider {
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                // Hourly rows aren't in the change log, so only their own observers care.
+                if (rowsDeleted != 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                return rowsDeleted;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /**
+     * @return the _id of the location with the location setting in values, or -1 if there is
+     * none.
+     */
+    private long getLocationId(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -310,7 +811,7 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -331,12 +832,19 @@ public class WeatherProvider extends ContentProvider {
                             returnCount++;
                         }
                     }
+                    // Syncs are the bulk of all writes, so this keeps the log bounded.
+                    pruneChanges(db);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 return returnCount;
+            case HOURLY:
+                int hourlyCount = bulkInsertHourly(db, values);
+                // Hourly rows aren't in the change log, so only their own observers care.
+                getContext().getContentResolver().notifyChange(uri, null);
+                return hourlyCount;
             default:
                 return super.bulkInsert(uri, values);
         }
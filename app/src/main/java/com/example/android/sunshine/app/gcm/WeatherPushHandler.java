@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Applies the forecast pushes the server sends over GCM, so that forecasts can change between
+ * periodic syncs without the app polling for them.
+ *
+ * A push is a data bundle of strings with {@link #KEY_TYPE} set to one of:
+ * <ul>
+ *     <li>{@link #TYPE_INVALIDATE}: the days from {@link #KEY_START_DATE} to
+ *     {@link #KEY_END_DATE} (both optional, in milliseconds) of {@link #KEY_LOCATION}'s forecast
+ *     are out of date.  The preferred location is synced again; for any other location the days
+ *     are dropped, so they are fetched again when it is next shown.</li>
+ *     <li>{@link #TYPE_DELTA}: {@link #KEY_FORECAST} holds a JSON array of days for
+ *     {@link #KEY_LOCATION}, each an object keyed by {@link WeatherEntry} column names with at
+ *     least {@link WeatherEntry#COLUMN_DATE}.  Days already stored are updated with whatever
+ *     columns are given; new days are inserted if every column is given.</li>
+ * </ul>
+ * Bundles without {@link #KEY_TYPE} are the older weather alerts, which this doesn't handle.
+ */
+public class WeatherPushHandler {
+    private static final String LOG_TAG = WeatherPushHandler.class.getSimpleName();
+
+    public static final String KEY_TYPE = "type";
+    public static final String KEY_LOCATION = "location";
+    public static final String KEY_START_DATE = "start_date";
+    public static final String KEY_END_DATE = "end_date";
+    public static final String KEY_FORECAST = "forecast";
+
+    public static final String TYPE_INVALIDATE = "invalidate";
+    public static final String TYPE_DELTA = "delta";
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({RESULT_IGNORED, RESULT_SYNC_REQUESTED, RESULT_INVALIDATED, RESULT_APPLIED})
+    public @interface Result {}
+
+    // The push was malformed, or about nothing stored.
+    public static final int RESULT_IGNORED = 0;
+    public static final int RESULT_SYNC_REQUESTED = 1;
+    public static final int RESULT_INVALIDATED = 2;
+    public static final int RESULT_APPLIED = 3;
+
+    // Every column a new weather row needs besides its location and date.
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String sLocationDateSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String sLocationDateRangeSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ? AND "
+                    + WeatherEntry.COLUMN_DATE + " <= ?";
+
+    private WeatherPushHandler() {
+    }
+
+    /**
+     * @return whether data is a forecast push rather than a weather alert.
+     */
+    public static boolean isForecastPush(Bundle data) {
+        return data.containsKey(KEY_TYPE);
+    }
+
+    /**
+     * Applies a forecast push.  Writes to the provider, so must not be called on the main
+     * thread.
+     */
+    @Result
+    public static int handle(Context context, Bundle data) {
+        String type = data.getString(KEY_TYPE);
+        String locationSetting = data.getString(KEY_LOCATION);
+        if (null == locationSetting) {
+            Log.w(LOG_TAG, "Forecast push without a location: " + data);
+            return RESULT_IGNORED;
+        }
+        try {
+            if (TYPE_INVALIDATE.equals(type)) {
+                return invalidate(context, locationSetting,
+                        getDate(data, KEY_START_DATE, Long.MIN_VALUE),
+                        getDate(data, KEY_END_DATE, Long.MAX_VALUE));
+            } else if (TYPE_DELTA.equals(type)) {
+                return applyDelta(context, locationSetting, data.getString(KEY_FORECAST));
+            }
+            Log.w(LOG_TAG, "Unknown forecast push type: " + type);
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Malformed forecast push: " + data, e);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Malformed forecast push: " + data, e);
+        }
+        return RESULT_IGNORED;
+    }
+
+    @Result
+    private static int invalidate(Context context, String locationSetting, long startDate,
+                                  long endDate) {
+        if (endDate < WeatherContract.normalizeDate(System.currentTimeMillis())) {
+            // Only days that have passed, which aren't shown anyway.
+            return RESULT_IGNORED;
+        }
+        if (locationSetting.equals(Utility.getPreferredLocation(context))) {
+            // The sync replaces every day in one go, which is cheaper than working out which
+            // ones the push meant.
+            SunshineSyncAdapter.syncImmediately(context);
+            return RESULT_SYNC_REQUESTED;
+        }
+
+        Long locationId = getLocationId(context, locationSetting);
+        if (null == locationId) {
+            return RESULT_IGNORED;
+        }
+        int deleted = context.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                sLocationDateRangeSelection, new String[]{
+                        Long.toString(locationId),
+                        Long.toString(startDate),
+                        Long.toString(endDate)});
+        return deleted > 0 ? RESULT_INVALIDATED : RESULT_IGNORED;
+    }
+
+    @Result
+    private static int applyDelta(Context context, String locationSetting, String forecastJson)
+            throws JSONException {
+        if (null == forecastJson) {
+            throw new JSONException("No " + KEY_FORECAST);
+        }
+        boolean preferred = locationSetting.equals(Utility.getPreferredLocation(context));
+        Long locationId = getLocationId(context, locationSetting);
+        if (null == locationId) {
+            // There is no location row to attach the days to.  The sync creates one for the
+            // preferred location; any other location's forecast isn't wanted yet.
+            if (preferred) {
+                SunshineSyncAdapter.syncImmediately(context);
+                return RESULT_SYNC_REQUESTED;
+            }
+            return RESULT_IGNORED;
+        }
+
+        JSONArray days = new JSONArray(forecastJson);
+        int applied = 0;
+        for (int i = 0; i < days.length(); i++) {
+            if (applyDay(context, locationId, days.getJSONObject(i))) {
+                applied++;
+            }
+        }
+        if (applied == 0) {
+            return RESULT_IGNORED;
+        }
+        if (preferred) {
+            SunshineSyncAdapter.notifyForecastChanged(context, locationSetting);
+        }
+        return RESULT_APPLIED;
+    }
+
+    /**
+     * @return whether day was written.
+     */
+    private static boolean applyDay(Context context, long locationId, JSONObject day)
+            throws JSONException {
+        long date = WeatherContract.normalizeDate(day.getLong(WeatherEntry.COLUMN_DATE));
+        ContentValues values = new ContentValues();
+        boolean complete = true;
+        for (String column : WEATHER_COLUMNS) {
+            if (!day.has(column)) {
+                complete = false;
+            } else if (WeatherEntry.COLUMN_SHORT_DESC.equals(column)) {
+                values.put(column, day.getString(column));
+            } else if (WeatherEntry.COLUMN_WEATHER_ID.equals(column)) {
+                values.put(column, day.getInt(column));
+            } else {
+                values.put(column, day.getDouble(column));
+            }
+        }
+        if (values.size() == 0) {
+            return false;
+        }
+
+        int updated = context.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                sLocationDateSelection,
+                new String[]{Long.toString(locationId), Long.toString(date)});
+        if (updated > 0) {
+            return true;
+        }
+        if (!complete) {
+            Log.w(LOG_TAG, "Skipping partial forecast push for an unstored day: " + day);
+            return false;
+        }
+        values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        context.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+        return true;
+    }
+
+    /**
+     * @return the _id of locationSetting's row, or null if it isn't stored.
+     */
+    private static Long getLocationId(Context context, String locationSetting) {
+        LocationIdCache locationIdCache = LocationIdCache.getInstance(context);
+        Long locationId = locationIdCache.get(locationSetting);
+        if (null != locationId) {
+            return locationId;
+        }
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (null == cursor) {
+            return null;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                locationId = cursor.getLong(0);
+                locationIdCache.put(locationSetting, locationId);
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationId;
+    }
+
+    /**
+     * @return the day data holds under key, normalized the way stored dates are, or defaultDate
+     * if it holds none.
+     */
+    private static long getDate(Bundle data, String key, long defaultDate) {
+        String date = data.getString(key);
+        return null == date ? defaultDate : WeatherContract.normalizeDate(Long.parseLong(date));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Serves Muzei the weather photos from a local cache, each downscaled to the screen once, so
+ * Muzei neither downloads the full-size photo every time the artwork is published nor has to
+ * scale it down itself.
+ *
+ * Muzei runs in its own process, so this provider is exported; it only ever opens the cached
+ * photos, read-only.
+ */
+public class WeatherArtworkProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherArtworkProvider.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "muzei_artwork";
+    private static final String FILE_SUFFIX = ".jpg";
+    private static final Pattern sFileNamePattern = Pattern.compile("[0-9a-f]+\\.jpg");
+    private static final String WIKIMEDIA_PREFIX = "upload.wikimedia.org/wikipedia/commons/";
+    private static final int JPEG_QUALITY = 90;
+
+    /**
+     * Makes sure the photo at imageUrl is in the cache, fetching and downscaling it if it
+     * isn't.  Goes to the network, so must not be called on the main thread.
+     *
+     * @return the uri Muzei can read the cached photo from, or null if it couldn't be fetched.
+     */
+    public static Uri getArtworkUri(Context context, String imageUrl) {
+        File file = getFile(context, imageUrl);
+        if (!file.exists() && !cacheArtwork(context, imageUrl, file)) {
+            return null;
+        }
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(context.getString(R.string.muzei_artwork_authority))
+                .appendPath(file.getName())
+                .build();
+    }
+
+    private static boolean cacheArtwork(Context context, String imageUrl, File file) {
+        // Large enough to cover the screen in either orientation.
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int size = Math.max(metrics.widthPixels, metrics.heightPixels);
+
+        // Never wider than the screen, so the thumbnail is the one right-sized fetch for every
+        // photo at least that wide, which is nearly all of them.
+        String thumbnailUrl = getThumbnailUrl(imageUrl, size);
+        FutureTarget<Bitmap> artwork = fetchArtwork(context, thumbnailUrl, size);
+        if (null == artwork && !thumbnailUrl.equals(imageUrl)) {
+            // Wikimedia won't scale a photo up, so one narrower than the screen is only
+            // available as itself, which is then no bigger than a thumbnail would have been.
+            // Once cached it isn't fetched again.
+            artwork = fetchArtwork(context, imageUrl, size);
+        }
+        if (null == artwork) {
+            // The caller keeps the current artwork and tries again on the next update.
+            return false;
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            file.getParentFile().mkdirs();
+            out = new FileOutputStream(tempFile);
+            artwork.get().compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+            return true;
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Unable to cache artwork from " + imageUrl, e);
+            tempFile.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            // Once written out the bitmap isn't needed, so it goes back to Glide's pool.
+            artwork.clear();
+        }
+    }
+
+    /**
+     * @return the finished load of the photo at url, decoded no smaller than size on either
+     * side, or null if it couldn't be fetched.
+     */
+    private static FutureTarget<Bitmap> fetchArtwork(Context context, String url, int size) {
+        // The downscaled copy written to the cache is the only one kept.
+        FutureTarget<Bitmap> artwork = Glide.with(context)
+                .load(url)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.NONE)
+                .skipMemoryCache(true)
+                .into(size, size);
+        try {
+            artwork.get();
+            return artwork;
+        } catch (InterruptedException | ExecutionException e) {
+            Log.d(LOG_TAG, "Unable to fetch artwork from " + url, e);
+            artwork.clear();
+            return null;
+        }
+    }
+
+    /**
+     * @return the url of a Wikimedia Commons thumbnail of imageUrl width pixels wide, or
+     * imageUrl itself if it isn't on Wikimedia Commons.
+     */
+    static String getThumbnailUrl(String imageUrl, int width) {
+        int start = imageUrl.indexOf(WIKIMEDIA_PREFIX);
+        if (start < 0) {
+            return imageUrl;
+        }
+        // .../commons/a/ab/Name.jpg becomes .../commons/thumb/a/ab/Name.jpg/1080px-Name.jpg
+        int pathStart = start + WIKIMEDIA_PREFIX.length();
+        String fileName = imageUrl.substring(imageUrl.lastIndexOf('/') + 1);
+        return imageUrl.substring(0, pathStart) + "thumb/" + imageUrl.substring(pathStart)
+                + "/" + width + "px-" + fileName;
+    }
+
+    private static File getFile(Context context, String imageUrl) {
+        return new File(new File(context.getFilesDir(), DIRECTORY_NAME),
+                Integer.toHexString(imageUrl.hashCode()) + FILE_SUFFIX);
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        String fileName = uri.getLastPathSegment();
+        // Nothing but the cached photos, so a crafted uri can't reach any other file.
+        if (null == fileName || !sFileNamePattern.matcher(fileName).matches()) {
+            throw new FileNotFoundException("Unknown artwork: " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Artwork is read-only: " + uri);
+        }
+        File file = new File(new File(getContext().getFilesDir(), DIRECTORY_NAME), fileName);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "image/jpeg";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Artwork is read-only: " + uri);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read-only: " + uri);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Artwork is read-only: " + uri);
+    }
+}
@@ -18,6 +18,7 @@ package com.example.android.sunshine.app.muzei;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
@@ -63,17 +64,33 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
             int weatherId = cursor.getInt(INDEX_WEATHER_ID);
             String desc = cursor.getString(INDEX_SHORT_DESC);
 
+            // Conditions that share a photo are one bucket, and the photo's url names it.
             String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
+            // Only publish a new wallpaper if we have a valid image, and the artwork would
+            // actually change; every publish has Muzei load the image again.
+            if (imageUrl != null && !isCurrentArtwork(imageUrl, desc, location)) {
+                Uri imageUri = WeatherArtworkProvider.getArtworkUri(this, imageUrl);
+                // If the photo couldn't be fetched, keep the current artwork; it is still not
+                // current on the next update, which tries again.
+                if (null != imageUri) {
+                    publishArtwork(new Artwork.Builder()
+                            .imageUri(imageUri)
+                            .token(imageUrl)
+                            .title(desc)
+                            .byline(location)
+                            .viewIntent(new Intent(this, MainActivity.class))
+                            .build());
+                }
             }
         }
         cursor.close();
     }
+
+    private boolean isCurrentArtwork(String imageUrl, String desc, String location) {
+        Artwork current = getCurrentArtwork();
+        return null != current
+                && imageUrl.equals(current.getToken())
+                && TextUtils.equals(desc, current.getTitle())
+                && TextUtils.equals(location, current.getByline());
+    }
 }
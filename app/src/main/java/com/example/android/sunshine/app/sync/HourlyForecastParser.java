@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads OpenWeatherMap's 5 day / 3 hour forecast straight off the connection into hourly rows.
+ *
+ * Unlike the daily forecast, which is small enough to read into a String and a JSONObject tree,
+ * this feed is read one token at a time, so the only thing held in memory is the rows
+ * themselves.  Values are scaled to the integers {@link HourlyEntry} stores as they are read.
+ */
+public class HourlyForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+    private static final String OWM_MESSAGE_CODE = "cod";
+    private static final String OWM_LIST = "list";
+    private static final String OWM_DATE = "dt";
+
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // Every column an hourly row can't be stored without.  The wind direction isn't one: calm
+    // hours come without it.
+    private static final String[] REQUIRED_COLUMNS = {
+            HourlyEntry.COLUMN_EPOCH_HOUR,
+            HourlyEntry.COLUMN_WEATHER_ID,
+            HourlyEntry.COLUMN_TEMP,
+            HourlyEntry.COLUMN_HUMIDITY,
+            HourlyEntry.COLUMN_PRESSURE,
+            HourlyEntry.COLUMN_WIND_SPEED
+    };
+
+    private HourlyForecastParser() {
+    }
+
+    /**
+     * @param in the feed, which this doesn't close
+     * @param locationId _id of the location row the feed is for
+     * @return the feed's rows, ready for {@link HourlyEntry#CONTENT_URI}.  Empty if the feed
+     * reports an error instead of a forecast.  Hours the feed leaves values out of are skipped.
+     * @throws IOException if in can't be read or isn't a forecast
+     */
+    public static ContentValues[] parse(Reader in, long locationId) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        List<ContentValues> rows = new ArrayList<ContentValues>(40);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // Sent as a string on success and as a number on failure.
+                    if (Integer.parseInt(reader.nextString()) != HttpURLConnection.HTTP_OK) {
+                        return new ContentValues[0];
+                    }
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        ContentValues row = readForecast(reader, locationId);
+                        if (isComplete(row)) {
+                            rows.add(row);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // Thrown when a value isn't of the type the feed documents.
+            throw new IOException("Unexpected hourly forecast", e);
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected hourly forecast", e);
+        }
+        return rows.toArray(new ContentValues[rows.size()]);
+    }
+
+    private static ContentValues readForecast(JsonReader reader, long locationId)
+            throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationId);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATE.equals(name)) {
+                // Seconds since the epoch.
+                values.put(HourlyEntry.COLUMN_EPOCH_HOUR,
+                        HourlyEntry.toEpochHour(reader.nextLong() * 1000));
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        values.put(HourlyEntry.COLUMN_TEMP,
+                                scale(reader.nextDouble(), HourlyEntry.SCALE_TEMP));
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        values.put(HourlyEntry.COLUMN_PRESSURE,
+                                scale(reader.nextDouble(), HourlyEntry.SCALE_PRESSURE));
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        values.put(HourlyEntry.COLUMN_HUMIDITY, scale(reader.nextDouble(), 1));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // An array which is 1 element long, holding the weather code.
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readWeatherId(reader, values);
+                }
+                reader.endArray();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        values.put(HourlyEntry.COLUMN_WIND_SPEED,
+                                scale(reader.nextDouble(), HourlyEntry.SCALE_WIND_SPEED));
+                    } else if (OWM_WIND_DIRECTION.equals(windName)
+                            && reader.peek() != JsonToken.NULL) {
+                        values.put(HourlyEntry.COLUMN_DEGREES, scale(reader.nextDouble(), 1));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Calm hours come without a direction.
+        if (!values.containsKey(HourlyEntry.COLUMN_DEGREES)) {
+            values.put(HourlyEntry.COLUMN_DEGREES, 0);
+        }
+        return values;
+    }
+
+    private static boolean isComplete(ContentValues row) {
+        for (String column : REQUIRED_COLUMNS) {
+            if (!row.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readWeatherId(JsonReader reader, ContentValues values)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_WEATHER_ID.equals(reader.nextName())
+                    && !values.containsKey(HourlyEntry.COLUMN_WEATHER_ID)) {
+                values.put(HourlyEntry.COLUMN_WEATHER_ID, reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static int scale(double value, int scale) {
+        return (int) Math.round(value * scale);
+    }
+}
@@ -2,9 +2,6 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
@@ -12,36 +9,28 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.ForecastSnapshot;
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.NotificationComposer;
 import com.example.android.sunshine.app.R;
-import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.WatchFaceCompanionActivity;
+import com.example.android.sunshine.app.SettingsRepository;
+import com.example.android.sunshine.app.art.ArtPackDownloadService;
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.RecentLocations;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.Wearable;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -51,12 +40,12 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Vector;
-import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -66,22 +55,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Once registered for GCM, forecast changes are pushed, and polling is only a fallback for
+    // pushes that never arrive.  60 seconds (1 minute) * 720 = 12 hours
+    public static final int SYNC_INTERVAL_WITH_PUSH = 60 * 720;
+    public static final int SYNC_FLEXTIME_WITH_PUSH = SYNC_INTERVAL_WITH_PUSH/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
 
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // Looking the account up is a round trip to AccountManager, and every launch and every
+    // sync request would otherwise make it, so the first answer is kept for the process.
+    private static Account sSyncAccount;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -93,33 +75,41 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
-    private GoogleApiClient mGoogleApiClient;
-
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
-
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                    @Override
-                    public void onConnectionFailed(@NonNull ConnectionResult result) {
-                        Log.d(LOG_TAG, "onConnectionFailed: " + result);
-                    }
-                })
-                .addApi(Wearable.API)
-                .build();
-        mGoogleApiClient.connect();
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
+        // Syncs run when the network is available, which is a good time to fetch the selected
+        // art pack if we don't have it yet.
+        ArtPackDownloadService.startIfNeeded(getContext());
+
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        SettingsRepository.Snapshot settings = SettingsRepository.getInstance(context).get();
+        syncLocation(new RecentLocations.Location(settings.locationSetting,
+                settings.latLonAvailable, settings.latitude, settings.longitude, 0), true);
+
+        // Keep the forecasts of the other recently shown locations warm too, so switching back
+        // to one of them shows it from the database straight away.
+        long now = System.currentTimeMillis();
+        for (RecentLocations.Location recent :
+                RecentLocations.get(context, settings.recentLocationsSize)) {
+            if (!recent.setting.equals(settings.locationSetting) && !recent.isFresh(now)) {
+                syncLocation(recent, false);
+            }
+        }
+    }
+
+    /**
+     * Fetches the daily and hourly forecasts for location and stores them.  Only the preferred
+     * location's sync reports a location status, and tells the widgets, notifications and
+     * everything else outside the app about the new forecast.
+     */
+    private void syncLocation(RecentLocations.Location location, boolean preferred) {
+        String locationQuery = location.setting;
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
@@ -139,28 +129,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // http://openweathermap.org/API#forecast
             final String FORECAST_BASE_URL =
                     "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
             final String FORMAT_PARAM = "mode";
             final String UNITS_PARAM = "units";
             final String DAYS_PARAM = "cnt";
             final String APPID_PARAM = "APPID";
 
             Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
+            appendLocation(uriBuilder, location);
 
             Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
                     .appendQueryParameter(UNITS_PARAM, units)
@@ -194,20 +169,23 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (buffer.length() == 0) {
                 // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                reportLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
                 return;
             }
             forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            long locationId = getWeatherDataFromJson(forecastJsonStr, locationQuery, preferred);
+            if (-1 != locationId) {
+                syncHourlyForecast(location, locationId);
+            }
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            reportLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            reportLocationStatus(preferred, LOCATION_STATUS_SERVER_INVALID);
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
@@ -223,15 +201,104 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         return;
     }
 
+    /**
+     * Adds the location to query the weather for to an OpenWeatherMap URI.
+     */
+    private void appendLocation(Uri.Builder uriBuilder, RecentLocations.Location location) {
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+
+        // We no longer need just the location String, but also potentially the latitude and
+        // longitude, in case we are syncing based on a new Place Picker API result.
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (location.latLonAvailable) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, String.valueOf(location.latitude))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(location.longitude));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, location.setting);
+        }
+    }
+
+    /**
+     * Fetches the 3-hourly forecast for the location the daily sync just stored, and replaces
+     * the location's hourly rows with it.  The hourly forecast is extra detail, so failing to
+     * get it is logged but leaves the location status alone.
+     *
+     * @param locationId the row id the daily sync stored the location under
+     */
+    private void syncHourlyForecast(RecentLocations.Location location, long locationId) {
+        final String HOURLY_BASE_URL = "http://api.openweathermap.org/data/2.5/forecast?";
+        final String UNITS_PARAM = "units";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(HOURLY_BASE_URL).buildUpon();
+        appendLocation(uriBuilder, location);
+        Uri builtUri = uriBuilder.appendQueryParameter(UNITS_PARAM, "metric")
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        HttpURLConnection urlConnection = null;
+        Reader reader = null;
+        try {
+            urlConnection = (HttpURLConnection) new URL(builtUri.toString()).openConnection();
+            urlConnection.setRequestMethod("GET");
+            urlConnection.connect();
+
+            reader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
+            ContentValues[] hourlyValues = HourlyForecastParser.parse(reader, locationId);
+            if (hourlyValues.length == 0) {
+                return;
+            }
+
+            ContentResolver resolver = getContext().getContentResolver();
+            resolver.bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI, hourlyValues);
+
+            // Hours that have passed are of no more use than yesterday's daily forecast.
+            resolver.delete(WeatherContract.HourlyEntry.CONTENT_URI,
+                    WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                            WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " < ?",
+                    new String[]{Long.toString(locationId), Integer.toString(
+                            WeatherContract.HourlyEntry.toEpochHour(System.currentTimeMillis()))});
+            Log.d(LOG_TAG, "Hourly sync complete. " + hourlyValues.length + " Inserted");
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching hourly forecast", e);
+        } catch (IllegalArgumentException e) {
+            // The provider turning down the rows mustn't abort the sync, whose daily forecast
+            // is already stored.
+            Log.e(LOG_TAG, "Error storing hourly forecast", e);
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
     /**
      * Take the String representing the complete forecast in JSON Format and
      * pull out the data we need to construct the Strings needed for the wireframes.
      *
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
      * into an Object hierarchy for us.
+     *
+     * @return the row id of the location the forecast was stored under, or -1 if the response
+     * was an error and nothing was stored.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
+    private long getWeatherDataFromJson(String forecastJsonStr,
+                                        String locationSetting, boolean preferred)
             throws JSONException {
 
         // Now we have a String representing the complete forecast in JSON Format.
@@ -280,11 +347,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     case HttpURLConnection.HTTP_OK:
                         break;
                     case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
+                        reportLocationStatus(preferred, LOCATION_STATUS_INVALID);
+                        return -1;
                     default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        reportLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+                        return -1;
                 }
             }
 
@@ -378,177 +445,83 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             if ( cVVector.size() > 0 ) {
                 ContentValues[] cvArray = new ContentValues[cVVector.size()];
                 cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+                inserted = getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+                // Only once the rows are in, so a failed insert leaves the location stale and
+                // switching back to it syncs again.
+                if (inserted > 0) {
+                    RecentLocations.setSynced(context, locationSetting, System.currentTimeMillis());
+                }
 
                 // delete old data so we don't build up an endless history
                 getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
                         new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                notifyWatch();
+                if (preferred) {
+                    notifyForecastChanged(context, locationSetting);
+                    notifyWeather(cVVector.get(0));
+                }
             }
             Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            reportLocationStatus(preferred, LOCATION_STATUS_OK);
+            return locationId;
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            reportLocationStatus(preferred, LOCATION_STATUS_SERVER_INVALID);
+            return -1;
         }
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
+    /**
+     * Brings everything outside the app's own screens up to date with the forecast just written
+     * for locationSetting, which should be the preferred location.  Called after every sync, and
+     * after a push changes the forecast between syncs.  Must not be called on the main thread.
+     */
+    public static void notifyForecastChanged(Context context, String locationSetting) {
+        // Written before anything else is told about the new data, so the next cold
+        // start shows it even if one of them is slow.
+        ForecastSnapshot.write(context, locationSetting);
+        updateWidgets(context);
+        updateMuzei(context);
+        WearForecastSync.syncForecast(context);
+    }
+
+    private static void updateWidgets(Context context) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
     }
 
-    private void notifyWeather() {
+    /**
+     * Posts today's forecast if it's the first sync of the day.  The notification is built and
+     * posted by {@link NotificationComposer} on its own thread, so this returns right away.
+     *
+     * @param today the row just written for today, so it doesn't have to be read back
+     */
+    private void notifyWeather(ContentValues today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
-            }
-        }
-    }
-
-    private void notifyWatch() {
-        long current = System.currentTimeMillis();
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, current);
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                float high = cursor.getFloat(INDEX_MAX_TEMP);
-                float low = cursor.getFloat(INDEX_MIN_TEMP);
-
-                if (mGoogleApiClient.isConnected()) {
-                    DataMap dataMap = new DataMap();
-                    dataMap.putLong(WatchFaceCompanionActivity.KEY_DATETIME, current);
-                    dataMap.putInt(WatchFaceCompanionActivity.KEY_FORECAST, weatherId);
-                    dataMap.putFloat(WatchFaceCompanionActivity.KEY_MAXTEMP, high);
-                    dataMap.putFloat(WatchFaceCompanionActivity.KEY_MINTEMP, low);
-
-                    Utility.putConfigDataItem(mGoogleApiClient, dataMap);
-                }
-            }
-            cursor.close();
+        SettingsRepository.Snapshot settings = SettingsRepository.getInstance(context).get();
+        if (settings.notificationsEnabled
+                && System.currentTimeMillis() - settings.lastNotification >= DAY_IN_MILLIS) {
+            // Last sync was more than 1 day ago, let's send a notification with the weather.
+            NotificationComposer.getInstance(context).notifyForecast(
+                    today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    today.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                    today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
         }
     }
 
@@ -562,43 +535,34 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+        // Every sync after the first for a location finds its id here, without a query.
+        LocationIdCache locationIdCache = LocationIdCache.getInstance(getContext());
+        Long cachedLocationId = locationIdCache.get(locationSetting);
+        if (null != cachedLocationId) {
+            return cachedLocationId;
         }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
+        // Now that the content provider is set up, inserting rows of data is pretty simple.
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        // Finally, insert location data into the database, unless it's already there.  Either
+        // way the provider hands back the URI of the row.
+        Uri locationUri = getContext().getContentResolver().insert(
+                WeatherContract.LocationEntry.UPSERT_URI,
+                locationValues
+        );
+
+        // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+        long locationId = ContentUris.parseId(locationUri);
+        locationIdCache.put(locationSetting, locationId);
         return locationId;
     }
 
@@ -621,6 +585,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * Polls at the interval that suits whether GCM pushes forecast changes to this install.
+     */
+    public static void configurePeriodicSync(Context context, boolean pushRegistered) {
+        if (pushRegistered) {
+            configurePeriodicSync(context, SYNC_INTERVAL_WITH_PUSH, SYNC_FLEXTIME_WITH_PUSH);
+        } else {
+            configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        }
+    }
+
     /**
      * Helper method to have the sync adapter sync immediately
      * @param context The context used to access the account service
@@ -641,7 +616,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param context The context used to access the account service
      * @return a fake account.
      */
-    public static Account getSyncAccount(Context context) {
+    public static synchronized Account getSyncAccount(Context context) {
+        if (null != sSyncAccount) {
+            return sSyncAccount;
+        }
+
         // Get an instance of the Android account manager
         AccountManager accountManager =
                 (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
@@ -669,6 +648,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             onAccountCreated(newAccount, context);
         }
+        sSyncAccount = newAccount;
         return newAccount;
     }
 
@@ -676,7 +656,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SunshineSyncAdapter.configurePeriodicSync(context, PreferenceManager
+                .getDefaultSharedPreferences(context)
+                .getBoolean(MainActivity.SENT_TOKEN_TO_SERVER, false));
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -694,15 +676,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
+     * Sets the location status, if the location just synced is the preferred one.  The status
+     * describes only the preferred location, so the other recent locations' syncs leave it be.
+     */
+    private void reportLocationStatus(boolean preferred, @LocationStatus int locationStatus) {
+        if (preferred) {
+            setLocationStatus(getContext(), locationStatus);
+        }
+    }
+
+    /**
+     * Sets the location status into shared preference.  Readers through Utility see it at once;
+     * the write to disk is batched and asynchronous, so this is safe from any thread.
+     * @param c Context to get the SettingsRepository from.
      * @param locationStatus The IntDef value to set
      */
     static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+        SettingsRepository.getInstance(c).setLocationStatus(locationStatus);
     }
 }
\ No newline at end of file
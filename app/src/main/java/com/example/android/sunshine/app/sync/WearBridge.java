@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The app's one connection to the Wearable Data Layer.
+ *
+ * Updates handed to {@link #send} are queued per Data Layer path.  A newer update for a path
+ * replaces one still waiting, since only the latest state matters to the watch, and everything
+ * queued is written in one go as soon as the client is connected, so nothing is lost to a
+ * connection that hasn't finished yet.
+ *
+ * Delivery latency (from {@link #send} to the Data Layer accepting the item) and the number of
+ * updates dropped, either replaced while queued or rejected by the Data Layer, are kept for
+ * diagnostics.
+ */
+public class WearBridge implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+    private static final String LOG_TAG = WearBridge.class.getSimpleName();
+
+    /**
+     * Told whether an update handed to {@link #send} made it to the Data Layer.  May be called
+     * on any thread.
+     */
+    public interface DeliveryListener {
+        /**
+         * @param delivered false if the update was replaced by a newer one before it was sent,
+         * or the Data Layer rejected it.
+         */
+        void onDelivery(boolean delivered);
+    }
+
+    private static WearBridge sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    // Guarded by this.  Insertion ordered, so a flush writes paths in the order first queued.
+    private final Map<String, PendingUpdate> mPending = new LinkedHashMap<String, PendingUpdate>();
+
+    private int mDeliveredCount;
+    private int mDroppedCount;
+    private long mTotalLatencyMillis;
+    private long mMaxLatencyMillis;
+
+    public static synchronized WearBridge getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new WearBridge(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WearBridge(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    /**
+     * Queues request for the watch, replacing any update for the same path that hasn't been
+     * sent yet, and sends it right away if the client is already connected.
+     *
+     * @param listener told the outcome, may be null
+     */
+    public void send(PutDataRequest request, DeliveryListener listener) {
+        String path = request.getUri().getPath();
+        PendingUpdate replaced;
+        synchronized (this) {
+            replaced = mPending.put(path,
+                    new PendingUpdate(request, listener, SystemClock.elapsedRealtime()));
+            if (null != replaced) {
+                mDroppedCount++;
+                // The replacement carries whatever made the replaced update urgent.
+                if (replaced.request.isUrgent()) {
+                    request.setUrgent();
+                }
+            }
+        }
+        if (null != replaced && null != replaced.listener) {
+            replaced.listener.onDelivery(false);
+        }
+
+        if (mGoogleApiClient.isConnected()) {
+            flush();
+        } else if (!mGoogleApiClient.isConnecting()) {
+            mGoogleApiClient.connect();
+        }
+    }
+
+    @Override
+    public void onConnected(Bundle connectionHint) {
+        flush();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        Log.d(LOG_TAG, "onConnectionSuspended: " + cause);
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+        // Whatever is queued waits for the next send to try connecting again.
+        Log.d(LOG_TAG, "onConnectionFailed: " + result);
+    }
+
+    /**
+     * Writes everything queued.
+     */
+    private void flush() {
+        List<PendingUpdate> batch;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<PendingUpdate>(mPending.values());
+            mPending.clear();
+        }
+        for (final PendingUpdate update : batch) {
+            Wearable.DataApi.putDataItem(mGoogleApiClient, update.request)
+                    .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                        @Override
+                        public void onResult(@NonNull DataApi.DataItemResult result) {
+                            onDelivery(update, result.getStatus().isSuccess());
+                        }
+                    });
+        }
+    }
+
+    private void onDelivery(PendingUpdate update, boolean delivered) {
+        long latencyMillis = SystemClock.elapsedRealtime() - update.queuedAt;
+        synchronized (this) {
+            if (delivered) {
+                mDeliveredCount++;
+                mTotalLatencyMillis += latencyMillis;
+                mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latencyMillis);
+            } else {
+                mDroppedCount++;
+            }
+        }
+        Log.d(LOG_TAG, (delivered ? "Delivered " : "Dropped ") + update.request.getUri().getPath()
+                + " after " + latencyMillis + "ms");
+        if (null != update.listener) {
+            update.listener.onDelivery(delivered);
+        }
+    }
+
+    public synchronized int getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized long getAverageLatencyMillis() {
+        return mDeliveredCount == 0 ? 0 : mTotalLatencyMillis / mDeliveredCount;
+    }
+
+    public synchronized long getMaxLatencyMillis() {
+        return mMaxLatencyMillis;
+    }
+
+    private static class PendingUpdate {
+        final PutDataRequest request;
+        final DeliveryListener listener;
+        final long queuedAt;
+
+        PendingUpdate(PutDataRequest request, DeliveryListener listener, long queuedAt) {
+            this.request = request;
+            this.listener = listener;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Sends the upcoming forecast to the watch as one small binary {@link Asset}.
+ *
+ * The forecast is only sent when its content differs from what was last delivered, so a sync
+ * that brings nothing new never wakes the watch.  Delivery is only marked urgent when today's
+ * weather, which is what the watch face shows, has changed; changes further out ride along
+ * with the next batched Data Layer sync.  Delivery goes through {@link WearBridge}, which holds
+ * it until the Data Layer is connected.
+ *
+ * Payload format, version 1, big-endian:
+ * <pre>
+ *     byte   version
+ *     long   date of the first day, normalized
+ *     byte   day count
+ *     day count times:
+ *         byte   days after the first day
+ *         short  weather condition id
+ *         short  high temperature, tenths of a degree Celsius
+ *         short  low temperature, tenths of a degree Celsius
+ * </pre>
+ */
+public class WearForecastSync {
+    private static final String LOG_TAG = WearForecastSync.class.getSimpleName();
+
+    public static final String PATH_FORECAST = "/sunshine/forecast";
+    public static final String KEY_PAYLOAD = "PAYLOAD";
+    public static final String KEY_CONTENT_HASH = "CONTENT_HASH";
+    public static final byte PAYLOAD_VERSION = 1;
+
+    static final int MAX_DAYS = 14;
+
+    private static final String PREF_SENT_HASH = "wear_forecast_sent_hash";
+    private static final String PREF_SENT_TODAY = "wear_forecast_sent_today";
+
+    private static final String[] WEAR_FORECAST_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+
+    /**
+     * Sends the forecast for the preferred location if it has changed since the last delivery.
+     * Queries the provider, so must not be called on the main thread.
+     */
+    static void syncForecast(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                locationSetting, System.currentTimeMillis(), MAX_DAYS);
+        Cursor cursor = context.getContentResolver().query(weatherUri, WEAR_FORECAST_PROJECTION,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+
+        byte[] payload;
+        String today;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            today = getTodaySignature(cursor);
+            payload = encode(cursor);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error encoding forecast for the watch", e);
+            return;
+        } finally {
+            cursor.close();
+        }
+
+        long contentHash = getContentHash(payload);
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (prefs.getLong(PREF_SENT_HASH, 0) == contentHash) {
+            return;
+        }
+        boolean urgent = !today.equals(prefs.getString(PREF_SENT_TODAY, null));
+
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_FORECAST);
+        putDataMapRequest.getDataMap().putLong(KEY_CONTENT_HASH, contentHash);
+        putDataMapRequest.getDataMap().putAsset(KEY_PAYLOAD, Asset.createFromBytes(payload));
+        PutDataRequest request = putDataMapRequest.asPutDataRequest();
+        if (urgent) {
+            request.setUrgent();
+        }
+        final long sentHash = contentHash;
+        final String sentToday = today;
+        WearBridge.getInstance(context).send(request, new WearBridge.DeliveryListener() {
+            @Override
+            public void onDelivery(boolean delivered) {
+                // A forecast that wasn't delivered is sent again after the next sync, unless a
+                // newer one has replaced it by then.
+                if (delivered) {
+                    prefs.edit()
+                            .putLong(PREF_SENT_HASH, sentHash)
+                            .putString(PREF_SENT_TODAY, sentToday)
+                            .apply();
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes the rows of cursor, starting at its current position, in the payload format
+     * described above.
+     */
+    static byte[] encode(Cursor cursor) throws IOException {
+        long firstDate = WeatherContract.normalizeDate(cursor.getLong(INDEX_DATE));
+        int firstJulianDay = getJulianDay(firstDate);
+        int count = Math.min(cursor.getCount() - cursor.getPosition(), MAX_DAYS);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(10 + count * 7);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PAYLOAD_VERSION);
+        out.writeLong(firstDate);
+        out.writeByte(count);
+        for (int i = 0; i < count; i++, cursor.moveToNext()) {
+            // Counted in calendar days: a day a daylight saving change falls in is 23 or 25
+            // hours long, so dividing the difference by a 24 hour day can land on the wrong one.
+            out.writeByte(getJulianDay(cursor.getLong(INDEX_DATE)) - firstJulianDay);
+            out.writeShort(cursor.getInt(INDEX_WEATHER_ID));
+            out.writeShort(toTenths(cursor.getDouble(INDEX_MAX_TEMP)));
+            out.writeShort(toTenths(cursor.getDouble(INDEX_MIN_TEMP)));
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the Julian day date falls on in the local time zone.
+     */
+    private static int getJulianDay(long date) {
+        Time time = new Time();
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    private static String getTodaySignature(Cursor cursor) {
+        return WeatherContract.normalizeDate(cursor.getLong(INDEX_DATE)) + ":"
+                + cursor.getInt(INDEX_WEATHER_ID) + ":"
+                + toTenths(cursor.getDouble(INDEX_MAX_TEMP)) + ":"
+                + toTenths(cursor.getDouble(INDEX_MIN_TEMP));
+    }
+
+    private static int toTenths(double temperature) {
+        return (int) Math.round(temperature * 10);
+    }
+
+    static long getContentHash(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+}
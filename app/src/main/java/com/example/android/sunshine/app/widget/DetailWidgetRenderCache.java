@@ -0,0 +1,220 @@
+package com.example.android.sunshine.app.widget;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.Log;
+import android.widget.RemoteViews;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtLoader;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Renders the rows of the detail widget once and shares them between every detail widget on
+ * the home screen.
+ *
+ * After a sync the cache is invalidated, and the first widget to ask for its rows rebuilds them
+ * in a single batch: one query, one decode per distinct piece of art, and one RemoteViews per
+ * day.  Every other widget, and every later getViewAt, is served from that batch.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class DetailWidgetRenderCache {
+    private static final String LOG_TAG = DetailWidgetRenderCache.class.getSimpleName();
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    static final int INDEX_WEATHER_ID = 0;
+    static final int INDEX_WEATHER_DATE = 1;
+    static final int INDEX_WEATHER_CONDITION_ID = 2;
+    static final int INDEX_WEATHER_DESC = 3;
+    static final int INDEX_WEATHER_MAX_TEMP = 4;
+    static final int INDEX_WEATHER_MIN_TEMP = 5;
+
+    /**
+     * One rendered set of widget rows.  Immutable once built.
+     */
+    static final class Rows {
+        final List<RemoteViews> views;
+        final long[] ids;
+        // Everything the rendering depends on besides the weather data itself.
+        final String renderKey;
+        // Number of rows showing decoded art rather than a local icon resource.
+        final int artRows;
+
+        Rows(List<RemoteViews> views, long[] ids, String renderKey, int artRows) {
+            this.views = views;
+            this.ids = ids;
+            this.renderKey = renderKey;
+            this.artRows = artRows;
+        }
+    }
+
+    private static Rows sRows;
+    private static int sArtDecodes;
+    private static int sArtDecodesAvoided;
+
+    /**
+     * Drops the rendered rows; the next {@link #getRows(Context)} rebuilds them.
+     */
+    static synchronized void invalidate() {
+        sRows = null;
+    }
+
+    /**
+     * @return the rendered rows for the preferred location, rebuilding them if the data, the
+     * day, or any display setting has changed since they were built.  Blocks while rebuilding,
+     * so only call this off the main thread.
+     */
+    static synchronized Rows getRows(Context context) {
+        String renderKey = getRenderKey(context);
+        if (null == sRows || !sRows.renderKey.equals(renderKey)) {
+            sRows = buildRows(context, renderKey);
+        } else {
+            sArtDecodesAvoided += sRows.artRows;
+        }
+        return sRows;
+    }
+
+    /**
+     * @return how many art decodes have been skipped, either because a row shared its art with
+     * an earlier row in the same batch or because a widget was served already rendered rows.
+     */
+    static synchronized int getArtDecodesAvoided() {
+        return sArtDecodesAvoided;
+    }
+
+    static synchronized int getArtDecodes() {
+        return sArtDecodes;
+    }
+
+    private static String getRenderKey(Context context) {
+        // Friendly dates ("Today", "Tomorrow") change at midnight, so the day is part of the key.
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        return Utility.getPreferredLocation(context) + '|' + Utility.isMetric(context) + '|'
+                + Utility.getArtPackUrlFormat(context) + '|' + julianDay;
+    }
+
+    private static Rows buildRows(Context context, String renderKey) {
+        String location = Utility.getPreferredLocation(context);
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+        Cursor data = context.getContentResolver().query(weatherForLocationUri,
+                FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (null == data) {
+            return new Rows(Collections.<RemoteViews>emptyList(), new long[0], renderKey, 0);
+        }
+
+        boolean usingLocalGraphics = Utility.usingLocalGraphics(context);
+        int artSize = WeatherArtLoader.getListIconSize(context);
+        Map<Integer, Bitmap> artByResource = new HashMap<Integer, Bitmap>();
+        List<RemoteViews> views = new ArrayList<RemoteViews>(data.getCount());
+        long[] ids = new long[data.getCount()];
+        try {
+            while (data.moveToNext()) {
+                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+                Bitmap weatherArtImage = null;
+                if (!usingLocalGraphics) {
+                    // Conditions that share an icon share remote art too, so one decode per
+                    // icon covers every row that shows it.
+                    if (artByResource.containsKey(weatherArtResourceId)) {
+                        weatherArtImage = artByResource.get(weatherArtResourceId);
+                        sArtDecodesAvoided++;
+                    } else {
+                        weatherArtImage = decodeArt(context, weatherId, weatherArtResourceId,
+                                artSize);
+                        artByResource.put(weatherArtResourceId, weatherArtImage);
+                    }
+                }
+                ids[data.getPosition()] = data.getLong(INDEX_WEATHER_ID);
+                views.add(buildRow(context, data, location, weatherArtResourceId,
+                        weatherArtImage));
+            }
+        } finally {
+            data.close();
+        }
+        return new Rows(Collections.unmodifiableList(views), ids, renderKey,
+                usingLocalGraphics ? 0 : views.size());
+    }
+
+    private static Bitmap decodeArt(Context context, int weatherId, int weatherArtResourceId,
+                                    int artSize) {
+        sArtDecodes++;
+        Object weatherArtModel = WeatherArtLoader.getArtModel(context, weatherId);
+        try {
+            return Glide.with(context)
+                    .load(weatherArtModel)
+                    .asBitmap()
+                    .error(weatherArtResourceId)
+                    .into(artSize, artSize).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtModel, e);
+            return null;
+        }
+    }
+
+    private static RemoteViews buildRow(Context context, Cursor data, String locationSetting,
+                                        int weatherArtResourceId, Bitmap weatherArtImage) {
+        RemoteViews views = new RemoteViews(context.getPackageName(),
+                R.layout.widget_detail_list_item);
+        String description = data.getString(INDEX_WEATHER_DESC);
+        long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+        String formattedDate = Utility.getFriendlyDayString(context, dateInMillis, false);
+        double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
+        double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
+        String formattedMaxTemperature = Utility.formatTemperature(context, maxTemp);
+        String formattedMinTemperature = Utility.formatTemperature(context, minTemp);
+        if (weatherArtImage != null) {
+            views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
+        } else {
+            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            setRemoteContentDescription(views, description);
+        }
+        views.setTextViewText(R.id.widget_date, formattedDate);
+        views.setTextViewText(R.id.widget_description, description);
+        views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
+        views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+
+        final Intent fillInIntent = new Intent();
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting,
+                dateInMillis);
+        fillInIntent.setData(weatherUri);
+        views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
+        return views;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+    private static void setRemoteContentDescription(RemoteViews views, String description) {
+        views.setContentDescription(R.id.widget_icon, description);
+    }
+}
@@ -26,6 +26,8 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
@@ -34,6 +36,10 @@ import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * IntentService which handles updating all Today widgets with the latest data
  */
@@ -50,6 +56,13 @@ public class TodayWidgetIntentService extends IntentService {
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
 
+    // Ask for every widget to be pushed, even those already showing the current content.
+    static final String EXTRA_FORCE_UPDATE = "force_update";
+
+    // Hash of the content last pushed to each widget id.  Lives as long as the process does;
+    // after a restart every widget is simply pushed once more.
+    private static final SparseIntArray sPushedContentHashes = new SparseIntArray();
+
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
     }
@@ -61,10 +74,11 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
+        // Get today's data from the ContentProvider.  Only the first row is shown, so only the
+        // first row is read.
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                location, System.currentTimeMillis(), 1);
         Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (data == null) {
@@ -85,20 +99,39 @@ public class TodayWidgetIntentService extends IntentService {
         String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
         data.close();
 
-        // Perform this loop procedure for each Today widget
+        // Widgets of the same size bucket show exactly the same thing, so group them by layout
+        // and render each layout once.
+        boolean forceUpdate = intent.getBooleanExtra(EXTRA_FORCE_UPDATE, false);
+        SparseArray<List<Integer>> widgetIdsByLayout = new SparseArray<List<Integer>>();
         for (int appWidgetId : appWidgetIds) {
-            // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
-            int layoutId;
-            if (widgetWidth >= largeWidth) {
-                layoutId = R.layout.widget_today_large;
-            } else if (widgetWidth >= defaultWidth) {
-                layoutId = R.layout.widget_today;
-            } else {
-                layoutId = R.layout.widget_today_small;
+            int layoutId = getLayoutForWidth(getWidgetWidth(appWidgetManager, appWidgetId));
+            List<Integer> widgetIds = widgetIdsByLayout.get(layoutId);
+            if (widgetIds == null) {
+                widgetIds = new ArrayList<Integer>();
+                widgetIdsByLayout.put(layoutId, widgetIds);
             }
+            widgetIds.add(appWidgetId);
+        }
+
+        for (int i = 0; i < widgetIdsByLayout.size(); i++) {
+            int layoutId = widgetIdsByLayout.keyAt(i);
+            int contentHash = Arrays.hashCode(new Object[]{layoutId, weatherArtResourceId,
+                    description, formattedMaxTemperature, formattedMinTemperature});
+
+            // Only push to widgets that aren't already showing this exact content.
+            List<Integer> staleWidgetIds = new ArrayList<Integer>();
+            synchronized (sPushedContentHashes) {
+                for (int appWidgetId : widgetIdsByLayout.valueAt(i)) {
+                    if (forceUpdate || sPushedContentHashes.indexOfKey(appWidgetId) < 0
+                            || sPushedContentHashes.get(appWidgetId) != contentHash) {
+                        staleWidgetIds.add(appWidgetId);
+                    }
+                }
+            }
+            if (staleWidgetIds.isEmpty()) {
+                continue;
+            }
+
             RemoteViews views = new RemoteViews(getPackageName(), layoutId);
 
             // Add the data to the RemoteViews
@@ -116,8 +149,41 @@ public class TodayWidgetIntentService extends IntentService {
             PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
             views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            // Tell the AppWidgetManager to update every widget in this bucket at once
+            int[] updateIds = new int[staleWidgetIds.size()];
+            for (int j = 0; j < updateIds.length; j++) {
+                updateIds[j] = staleWidgetIds.get(j);
+            }
+            appWidgetManager.updateAppWidget(updateIds, views);
+            synchronized (sPushedContentHashes) {
+                for (int appWidgetId : updateIds) {
+                    sPushedContentHashes.put(appWidgetId, contentHash);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets what was last pushed to the given widgets, e.g. because they have been deleted.
+     */
+    static void forgetWidgets(int[] appWidgetIds) {
+        synchronized (sPushedContentHashes) {
+            for (int appWidgetId : appWidgetIds) {
+                sPushedContentHashes.delete(appWidgetId);
+            }
+        }
+    }
+
+    private int getLayoutForWidth(int widgetWidth) {
+        // Find the correct layout based on the widget's width
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        if (widgetWidth >= largeWidth) {
+            return R.layout.widget_today_large;
+        } else if (widgetWidth >= defaultWidth) {
+            return R.layout.widget_today;
+        } else {
+            return R.layout.widget_today_small;
         }
     }
 
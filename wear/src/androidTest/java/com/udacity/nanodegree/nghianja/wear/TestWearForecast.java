@@ -0,0 +1,101 @@
+package com.udacity.nanodegree.nghianja.wear;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public class TestWearForecast extends AndroidTestCase {
+
+    private static final int DAYS = 7;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+        // Clocks went forward here on 13 March 2016.
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        super.tearDown();
+    }
+
+    /*
+        Every day of a forecast spanning a daylight saving change must decode to that day's
+        midnight, not to a 24 hour multiple of the first day.
+     */
+    public void testParseAcrossDaylightSaving() throws IOException {
+        WearForecast forecast = WearForecast.parse(createPayload(getNoon(2016, Calendar.MARCH, 10)));
+        assertEquals(DAYS, forecast.size());
+        Calendar calendar = Calendar.getInstance();
+        for (int i = 0; i < DAYS; i++) {
+            calendar.setTimeInMillis(forecast.dates[i]);
+            assertEquals("Error: day " + i + " is on the wrong date",
+                    10 + i, calendar.get(Calendar.DAY_OF_MONTH));
+            assertEquals("Error: day " + i + " isn't a midnight",
+                    0, calendar.get(Calendar.HOUR_OF_DAY));
+        }
+    }
+
+    /*
+        The watch face looks up today's entry whenever midnight passes.  Every moment of each day
+        after a daylight saving change, up to the last one before the next midnight, must find
+        that day's entry.
+     */
+    public void testIndexOfDayAcrossDaylightSaving() throws IOException {
+        WearForecast forecast = WearForecast.parse(createPayload(getNoon(2016, Calendar.MARCH, 10)));
+        Calendar calendar = Calendar.getInstance();
+        for (int i = 0; i < DAYS; i++) {
+            calendar.clear();
+            calendar.set(2016, Calendar.MARCH, 10 + i, 0, 0, 0);
+            long midnight = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+            long nextMidnight = calendar.getTimeInMillis();
+
+            assertEquals("Error: wrong entry just after midnight of day " + i,
+                    i, forecast.indexOfDay(midnight));
+            assertEquals("Error: wrong entry just before the end of day " + i,
+                    i, forecast.indexOfDay(nextMidnight - 1));
+            assertEquals(800 + i, forecast.weatherIds[forecast.indexOfDay(midnight)]);
+        }
+        calendar.clear();
+        calendar.set(2016, Calendar.MARCH, 10 + DAYS, 0, 0, 0);
+        assertEquals("Error: a day past the forecast should have no entry",
+                -1, forecast.indexOfDay(calendar.getTimeInMillis()));
+    }
+
+    /*
+        The payload the phone sends for DAYS days from the day of date, in the format
+        WearForecastSync writes.
+     */
+    static byte[] createPayload(long date) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(WearForecast.PAYLOAD_VERSION);
+        out.writeLong(WearableWeatherContract.normalizeDate(date));
+        out.writeByte(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            out.writeByte(i);
+            out.writeShort(800 + i);
+            out.writeShort(200 + i);
+            out.writeShort(100 + i);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static long getNoon(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, 12, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -22,7 +22,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -31,10 +30,12 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
+import android.text.format.Time;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
@@ -73,6 +74,11 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Number of frames summarized by each frame statistics log line in debug builds.
+     */
+    private static final int FRAME_STATS_INTERVAL = 60;
+
     private static final String[] FORECAST_COLUMNS = {
             WearableWeatherContract.WeatherEntry.TABLE_NAME + "." + WearableWeatherContract.WeatherEntry._ID,
             WearableWeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -92,6 +98,24 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
     private static final String KEY_MAXTEMP = "MAXTEMP";
     private static final String KEY_MINTEMP = "MINTEMP";
 
+    /**
+     * Condition icon edge length as a fraction of the face width.  Matches the icons' natural
+     * size on a 320 pixel hdpi face.
+     */
+    private static final float ICON_SCALE = 0.1875f;
+
+    // Every icon getWeatherIcon can return.
+    private static final int[] WEATHER_ICONS = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
     private static int getWeatherIcon(int weatherId) {
         // Based on weather code data found at:
         // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
@@ -150,7 +174,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
-        Bitmap mIconBitmap;
+        WatchIconCache mIconCache;
+        int mIconResId;
         Paint mBackgroundPaint;
         Paint mHandPaint;
         Paint mSecondHandPaint;
@@ -163,6 +188,10 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             public void onReceive(Context context, Intent intent) {
                 String tz = intent.getStringExtra("time-zone");
                 mCalendar.setTimeZone(TimeZone.getTimeZone(tz));
+                // Today starts and ends at other moments in the new time zone.
+                if (mForecast != null) {
+                    updateWatchFace(mForecast);
+                }
             }
         };
         int mTapCount;
@@ -177,8 +206,48 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
          */
         boolean mLowBitAmbient;
 
+        /**
+         * Background, weather icon and temperatures, redrawn only when one of them changes.
+         */
+        Bitmap mStaticLayer;
+        Canvas mStaticLayerCanvas;
+        boolean mStaticLayerDirty = true;
+
+        // Frame statistics, only collected in debug builds.
+        int mFrameCount;
+        long mFrameNanosTotal;
+        long mFrameNanosMax;
+        int mStaticLayerRenders;
+
         AsyncTask<String, Void, Cursor> mLoadWeatherTask;
 
+        final SunshineWatchFaceUtility.FetchForecastCallback mForecastCallback =
+                new SunshineWatchFaceUtility.FetchForecastCallback() {
+                    @Override
+                    public void onForecastFetched(WearForecast forecast) {
+                        updateWatchFace(forecast);
+                    }
+                };
+
+        // Only used until the phone has delivered a forecast since the face started.
+        final SunshineWatchFaceUtility.FetchForecastCallback mStoredForecastCallback =
+                new SunshineWatchFaceUtility.FetchForecastCallback() {
+                    @Override
+                    public void onForecastFetched(WearForecast forecast) {
+                        if (mForecast == null) {
+                            updateWatchFace(forecast);
+                        }
+                    }
+                };
+
+        /**
+         * The last forecast delivered by the phone, or read back from {@link WearForecastStore},
+         * and the start and end of the day whose entry is being shown from it.
+         */
+        WearForecast mForecast;
+        long mForecastDayStart;
+        long mForecastDayEnd;
+
         GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(SunshineWatchFaceService.this)
                 .addConnectionCallbacks(this)
                 .addOnConnectionFailedListener(this)
@@ -198,7 +267,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
             mBackgroundPaint = new Paint();
             mBackgroundPaint.setColor(ContextCompat.getColor(SunshineWatchFaceService.this, R.color.background_light));
-            mIconBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.ic_clear);
+            mIconCache = new WatchIconCache(getResources());
+            mIconResId = R.drawable.ic_clear;
 
             mHandPaint = new Paint();
             mHandPaint.setColor(ContextCompat.getColor(SunshineWatchFaceService.this, R.color.analog_hands));
@@ -231,11 +301,17 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mFormat = SunshineWatchFaceService.this.getString(R.string.format_temperature);
             mHighTemp = 25f;
             mLowTemp = 16f;
+
+            // Show the last forecast we were sent straight away, without waiting for the phone.
+            SunshineWatchFaceUtility.loadStoredForecast(SunshineWatchFaceService.this,
+                    mStoredForecastCallback);
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            releaseStaticLayer();
+            mIconCache.clear();
             super.onDestroy();
         }
 
@@ -245,9 +321,19 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
         }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            // Decode every condition icon now, so a weather change never has to.
+            mIconCache.setSize(Math.round(width * ICON_SCALE));
+            mIconCache.prepare(WEATHER_ICONS);
+            invalidateStaticLayer();
+        }
+
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            checkForecastDay();
             invalidate();
         }
 
@@ -259,8 +345,10 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 if (mLowBitAmbient) {
                     mHandPaint.setAntiAlias(!inAmbientMode);
                     mSecondHandPaint.setAntiAlias(inAmbientMode);
+                    mHighTextPaint.setAntiAlias(!inAmbientMode);
+                    mLowTextPaint.setAntiAlias(!inAmbientMode);
                 }
-                invalidate();
+                invalidateStaticLayer();
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -287,6 +375,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                     mBackgroundPaint.setColor(
                             ContextCompat.getColor(SunshineWatchFaceService.this,
                                     mTapCount % 2 == 0 ? R.color.background_light : R.color.background_dark));
+                    mStaticLayerDirty = true;
                     break;
             }
             invalidate();
@@ -294,25 +383,23 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long frameStartNanos = 0;
+            if (BuildConfig.DEBUG) {
+                frameStartNanos = SystemClock.elapsedRealtimeNanos();
+            }
+
             // Update the time
             mCalendar.setTimeInMillis(System.currentTimeMillis());
 
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                float canvasX4 = canvas.getWidth() / 4f;
-                float canvasY2 = canvas.getHeight() / 2f;
-                float iconX2 = mIconBitmap.getWidth() / 2f;
-                float iconY2 = mIconBitmap.getHeight() / 2f;
-                String high = String.format(mFormat, mHighTemp);
-                String low = String.format(mFormat, mLowTemp);
-
-                canvas.drawRect(0, 0, canvas.getWidth(), canvas.getHeight(), mBackgroundPaint);
-                canvas.drawBitmap(mIconBitmap, canvasX4 - iconX2, canvasY2 - iconY2, null);
-                canvas.drawText(high, 0, high.length(), canvas.getWidth() - canvasX4, canvasY2 - iconY2, mHighTextPaint);
-                canvas.drawText(low, 0, low.length(), canvas.getWidth() - canvasX4, canvasY2 + mIconBitmap.getHeight(), mLowTextPaint);
+            // Draw the background.  The background, icon and temperatures only change with the
+            // weather or ambient mode, so they are drawn once into the static layer and each
+            // tick just copies it.
+            if (mStaticLayerDirty || mStaticLayer == null
+                    || mStaticLayer.getWidth() != canvas.getWidth()
+                    || mStaticLayer.getHeight() != canvas.getHeight()) {
+                renderStaticLayer(canvas.getWidth(), canvas.getHeight());
             }
+            canvas.drawBitmap(mStaticLayer, 0, 0, null);
 
             // Find the center. Ignore the window insets so that, on round watches with a
             // "chin", the watch face is centered on the entire screen, not just the usable
@@ -342,6 +429,89 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             float hrX = (float) Math.sin(hrRot) * hrLength;
             float hrY = (float) -Math.cos(hrRot) * hrLength;
             canvas.drawLine(centerX, centerY, centerX + hrX, centerY + hrY, mHandPaint);
+
+            if (BuildConfig.DEBUG) {
+                recordFrame(SystemClock.elapsedRealtimeNanos() - frameStartNanos);
+            }
+        }
+
+        /**
+         * Draws the background, weather icon and temperatures into {@link #mStaticLayer},
+         * reallocating it if the surface size has changed.
+         */
+        private void renderStaticLayer(int width, int height) {
+            if (mStaticLayer == null || mStaticLayer.getWidth() != width
+                    || mStaticLayer.getHeight() != height) {
+                releaseStaticLayer();
+                mStaticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mStaticLayerCanvas = new Canvas(mStaticLayer);
+            }
+            Canvas canvas = mStaticLayerCanvas;
+
+            float canvasX4 = width / 4f;
+            float canvasY2 = height / 2f;
+            Bitmap icon = mIconCache.get(mIconResId, getIconMode());
+            float iconX2 = icon.getWidth() / 2f;
+            float iconY2 = icon.getHeight() / 2f;
+            String high = String.format(mFormat, mHighTemp);
+            String low = String.format(mFormat, mLowTemp);
+
+            if (mAmbient) {
+                canvas.drawColor(Color.BLACK);
+            } else {
+                canvas.drawRect(0, 0, width, height, mBackgroundPaint);
+            }
+            canvas.drawBitmap(icon, canvasX4 - iconX2, canvasY2 - iconY2, null);
+            canvas.drawText(high, 0, high.length(), width - canvasX4, canvasY2 - iconY2, mHighTextPaint);
+            canvas.drawText(low, 0, low.length(), width - canvasX4, canvasY2 + icon.getHeight(), mLowTextPaint);
+
+            mStaticLayerDirty = false;
+            mStaticLayerRenders++;
+        }
+
+        private int getIconMode() {
+            if (!mAmbient) {
+                return WatchIconCache.MODE_INTERACTIVE;
+            }
+            return mLowBitAmbient
+                    ? WatchIconCache.MODE_LOW_BIT_AMBIENT : WatchIconCache.MODE_AMBIENT;
+        }
+
+        private void releaseStaticLayer() {
+            if (mStaticLayer != null) {
+                mStaticLayer.recycle();
+                mStaticLayer = null;
+                mStaticLayerCanvas = null;
+            }
+        }
+
+        /**
+         * Marks the static layer stale and redraws.  Call whenever anything drawn into it changes.
+         */
+        private void invalidateStaticLayer() {
+            mStaticLayerDirty = true;
+            invalidate();
+        }
+
+        /**
+         * Accumulates the cost of one frame and logs a summary every
+         * {@link #FRAME_STATS_INTERVAL} frames.  Debug builds only.
+         */
+        private void recordFrame(long frameNanos) {
+            mFrameCount++;
+            mFrameNanosTotal += frameNanos;
+            mFrameNanosMax = Math.max(mFrameNanosMax, frameNanos);
+            if (mFrameCount < FRAME_STATS_INTERVAL) {
+                return;
+            }
+            Log.d(TAG, "Frames: " + mFrameCount
+                    + ", avg " + TimeUnit.NANOSECONDS.toMicros(mFrameNanosTotal / mFrameCount) + "us"
+                    + ", max " + TimeUnit.NANOSECONDS.toMicros(mFrameNanosMax) + "us"
+                    + ", static layer renders " + mStaticLayerRenders);
+            mFrameCount = 0;
+            mFrameNanosTotal = 0;
+            mFrameNanosMax = 0;
+            mStaticLayerRenders = 0;
         }
 
         @Override
@@ -410,6 +580,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            checkForecastDay();
             invalidate();
             if (shouldTimerBeRunning()) {
                 long timeMs = System.currentTimeMillis();
@@ -430,6 +601,16 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 }
 
                 DataItem dataItem = dataEvent.getDataItem();
+                if (dataItem.getUri().getPath().equals(SunshineWatchFaceUtility.PATH_FORECAST)) {
+                    if (mForecast == null || mForecast.contentHash
+                            != SunshineWatchFaceUtility.getForecastContentHash(dataItem)) {
+                        SunshineWatchFaceUtility.loadForecast(SunshineWatchFaceService.this,
+                                mGoogleApiClient,
+                                SunshineWatchFaceUtility.getForecastPayload(dataItem),
+                                mForecastCallback);
+                    }
+                    continue;
+                }
                 if (!dataItem.getUri().getPath().equals(
                         SunshineWatchFaceUtility.PATH_WITH_FEATURE)) {
                     continue;
@@ -447,9 +628,11 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         private void updateWatchFace(final DataMap config) {
             boolean uiUpdated = false;
             if (config.containsKey(KEY_FORECAST) && config.getInt(KEY_FORECAST) != 0) {
-                mIconBitmap = BitmapFactory.decodeResource(getResources(),
-                        getWeatherIcon(config.getInt(KEY_FORECAST)));
-                uiUpdated = true;
+                int icon = getWeatherIcon(config.getInt(KEY_FORECAST));
+                if (icon != -1) {
+                    mIconResId = icon;
+                    uiUpdated = true;
+                }
             }
             if (config.containsKey(KEY_MAXTEMP)) {
                 mHighTemp = config.getFloat(KEY_MAXTEMP);
@@ -460,7 +643,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 uiUpdated = true;
             }
             if (uiUpdated) {
-                invalidate();
+                invalidateStaticLayer();
             }
         }
 
@@ -473,6 +656,46 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                         }
                     }
             );
+            // Usually the stored forecast is already the latest, and this finds nothing to load.
+            SunshineWatchFaceUtility.fetchForecast(SunshineWatchFaceService.this,
+                    mGoogleApiClient, mForecast != null ? mForecast.contentHash : 0,
+                    mForecastCallback);
+        }
+
+        /**
+         * Shows today's entry of a forecast delivered by the phone.
+         */
+        private void updateWatchFace(WearForecast forecast) {
+            long now = System.currentTimeMillis();
+            mForecast = forecast;
+            // Found by calendar day, since a daylight saving change makes a day 23 or 25 hours.
+            Time time = new Time();
+            time.set(now);
+            int julianDay = Time.getJulianDay(now, time.gmtoff);
+            mForecastDayStart = time.setJulianDay(julianDay);
+            mForecastDayEnd = time.setJulianDay(julianDay + 1);
+            int today = forecast.indexOfDay(now);
+            if (today < 0) {
+                return;
+            }
+            int icon = getWeatherIcon(forecast.weatherIds[today]);
+            if (icon != -1) {
+                mIconResId = icon;
+            }
+            mHighTemp = forecast.highs[today];
+            mLowTemp = forecast.lows[today];
+            invalidateStaticLayer();
+        }
+
+        /**
+         * Moves on to the next day's entry of the current forecast once midnight has passed.
+         * Cheap enough to call on every interactive redraw.
+         */
+        private void checkForecastDay() {
+            long now = System.currentTimeMillis();
+            if (mForecast != null && (now < mForecastDayStart || now >= mForecastDayEnd)) {
+                updateWatchFace(mForecast);
+            }
         }
 
         private void onWeatherLoaded(Cursor cursor) {
@@ -480,11 +703,13 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 if (Log.isLoggable(TAG, Log.DEBUG)) {
                     Log.d(TAG, "onWeatherLoad: " + cursor.getInt(COL_WEATHER_ID));
                 }
-                mIconBitmap = BitmapFactory.decodeResource(getResources(),
-                        getWeatherIcon(cursor.getInt(COL_WEATHER_CONDITION_ID)));
+                int icon = getWeatherIcon(cursor.getInt(COL_WEATHER_CONDITION_ID));
+                if (icon != -1) {
+                    mIconResId = icon;
+                }
                 mHighTemp = cursor.getFloat(COL_WEATHER_MAX_TEMP);
                 mLowTemp = cursor.getFloat(COL_WEATHER_MIN_TEMP);
-                invalidate();
+                invalidateStaticLayer();
             }
         }
 
@@ -1,18 +1,24 @@
 package com.udacity.nanodegree.nghianja.wear;
 
+import android.content.Context;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.util.Log;
 
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.IOException;
+
 /**
  * Referenced from the DigitalWatchFaceUtil class in the WatchFace sample.
  */
@@ -21,6 +27,15 @@ public class SunshineWatchFaceUtility {
 
     public static final String PATH_WITH_FEATURE = "/sunshine";
 
+    // The multi-day forecast pushed by the phone after each sync that changes it.
+    public static final String PATH_FORECAST = "/sunshine/forecast";
+    public static final String KEY_PAYLOAD = "PAYLOAD";
+    public static final String KEY_CONTENT_HASH = "CONTENT_HASH";
+
+    public interface FetchForecastCallback {
+        void onForecastFetched(WearForecast forecast);
+    }
+
     public interface FetchConfigDataMapCallback {
         void onConfigDataMapFetched(DataMap config);
     }
@@ -75,6 +90,106 @@ public class SunshineWatchFaceUtility {
                 });
     }
 
+    /**
+     * Looks up the last forecast the phone delivered, decodes and stores it off the main thread,
+     * and hands it to callback on the main thread.  The callback isn't called if there is no
+     * forecast yet, or if it is the one whose content hash is knownContentHash.
+     */
+    public static void fetchForecast(final Context context, final GoogleApiClient client,
+                                     final long knownContentHash,
+                                     final FetchForecastCallback callback) {
+        Wearable.DataApi.getDataItems(client).setResultCallback(
+                new ResultCallback<DataItemBuffer>() {
+                    @Override
+                    public void onResult(DataItemBuffer dataItems) {
+                        Asset payload = null;
+                        for (DataItem dataItem : dataItems) {
+                            if (PATH_FORECAST.equals(dataItem.getUri().getPath())
+                                    && getForecastContentHash(dataItem) != knownContentHash) {
+                                payload = getForecastPayload(dataItem);
+                            }
+                        }
+                        dataItems.release();
+                        if (payload != null) {
+                            loadForecast(context, client, payload, callback);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Reads the forecast kept by {@link WearForecastStore} off the main thread and hands it to
+     * callback on the main thread.  The callback isn't called if nothing is stored.
+     */
+    public static void loadStoredForecast(Context context, final FetchForecastCallback callback) {
+        new AsyncTask<Context, Void, WearForecast>() {
+            @Override
+            protected WearForecast doInBackground(Context... params) {
+                return WearForecastStore.load(params[0]);
+            }
+
+            @Override
+            protected void onPostExecute(WearForecast forecast) {
+                if (forecast != null) {
+                    callback.onForecastFetched(forecast);
+                }
+            }
+        }.execute(context.getApplicationContext());
+    }
+
+    /**
+     * @return the content hash the phone sent with the forecast in dataItem, which must be on
+     * {@link #PATH_FORECAST}.
+     */
+    public static long getForecastContentHash(DataItem dataItem) {
+        return DataMapItem.fromDataItem(dataItem).getDataMap().getLong(KEY_CONTENT_HASH);
+    }
+
+    /**
+     * @return the forecast asset in dataItem, which must be on {@link #PATH_FORECAST}.
+     */
+    public static Asset getForecastPayload(DataItem dataItem) {
+        return DataMapItem.fromDataItem(dataItem).getDataMap().getAsset(KEY_PAYLOAD);
+    }
+
+    /**
+     * Decodes payload and replaces the stored forecast with it off the main thread, then hands
+     * it to callback on the main thread.
+     */
+    public static void loadForecast(Context context, final GoogleApiClient client, Asset payload,
+                                    final FetchForecastCallback callback) {
+        final Context appContext = context.getApplicationContext();
+        new AsyncTask<Asset, Void, WearForecast>() {
+            @Override
+            protected WearForecast doInBackground(Asset... params) {
+                DataApi.GetFdForAssetResult result =
+                        Wearable.DataApi.getFdForAsset(client, params[0]).await();
+                if (!result.getStatus().isSuccess() || result.getInputStream() == null) {
+                    Log.w(TAG, "Forecast asset unavailable: " + result.getStatus());
+                    return null;
+                }
+                try {
+                    byte[] bytes = WearForecast.readPayload(result.getInputStream());
+                    WearForecast forecast = WearForecast.parse(bytes);
+                    WearForecastStore.save(appContext, bytes);
+                    return forecast;
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to read forecast", e);
+                    return null;
+                } finally {
+                    result.release();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(WearForecast forecast) {
+                if (forecast != null) {
+                    callback.onForecastFetched(forecast);
+                }
+            }
+        }.execute(payload);
+    }
+
     private static class DataItemResultCallback implements ResultCallback<DataApi.DataItemResult> {
 
         private final FetchConfigDataMapCallback mCallback;
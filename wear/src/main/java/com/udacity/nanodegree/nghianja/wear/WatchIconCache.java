@@ -0,0 +1,134 @@
+package com.udacity.nanodegree.nghianja.wear;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.util.SparseArray;
+
+/**
+ * Condition icons for the watch face, decoded once at the size the face draws them, together
+ * with the grayscale and low-bit variants shown in ambient mode.
+ *
+ * Once {@link #prepare(int[])} has run for the current size, switching conditions or ambient
+ * state is a lookup and never decodes or allocates.
+ */
+class WatchIconCache {
+    static final int MODE_INTERACTIVE = 0;
+    static final int MODE_AMBIENT = 1;
+    static final int MODE_LOW_BIT_AMBIENT = 2;
+    private static final int MODE_COUNT = 3;
+
+    // Pixels at least this opaque are lit in the low-bit variant, everything else is off.
+    private static final int LOW_BIT_ALPHA_THRESHOLD = 0x80;
+
+    private final Resources mResources;
+    private final SparseArray<Bitmap[]> mIcons = new SparseArray<>();
+    private int mSize;
+
+    WatchIconCache(Resources resources) {
+        mResources = resources;
+    }
+
+    /**
+     * Sets the edge length, in pixels, icons are decoded at.  Icons decoded at another size are
+     * released.
+     */
+    void setSize(int size) {
+        if (size == mSize) {
+            return;
+        }
+        clear();
+        mSize = size;
+    }
+
+    /**
+     * Decodes every icon in resIds, and its ambient variants, that isn't already cached.
+     */
+    void prepare(int[] resIds) {
+        for (int resId : resIds) {
+            if (mIcons.get(resId) == null) {
+                mIcons.put(resId, decode(resId));
+            }
+        }
+    }
+
+    /**
+     * @return the icon for resId in the given mode, decoding it first if it wasn't prepared.
+     */
+    Bitmap get(int resId, int mode) {
+        Bitmap[] variants = mIcons.get(resId);
+        if (variants == null) {
+            variants = decode(resId);
+            mIcons.put(resId, variants);
+        }
+        return variants[mode];
+    }
+
+    /**
+     * Recycles every cached icon.
+     */
+    void clear() {
+        for (int i = 0; i < mIcons.size(); i++) {
+            for (Bitmap bitmap : mIcons.valueAt(i)) {
+                bitmap.recycle();
+            }
+        }
+        mIcons.clear();
+    }
+
+    private Bitmap[] decode(int resId) {
+        Bitmap[] variants = new Bitmap[MODE_COUNT];
+        variants[MODE_INTERACTIVE] = decodeScaled(resId);
+        variants[MODE_AMBIENT] = toGrayscale(variants[MODE_INTERACTIVE]);
+        variants[MODE_LOW_BIT_AMBIENT] = toLowBit(variants[MODE_AMBIENT]);
+        return variants;
+    }
+
+    /**
+     * Decodes resId straight to {@link #mSize}, without a full size intermediate bitmap.
+     */
+    private Bitmap decodeScaled(int resId) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(mResources, resId, options);
+
+        options.inJustDecodeBounds = false;
+        options.inScaled = true;
+        options.inDensity = options.outWidth;
+        options.inTargetDensity = mSize;
+        return BitmapFactory.decodeResource(mResources, resId, options);
+    }
+
+    private static Bitmap toGrayscale(Bitmap source) {
+        Bitmap grayscale = Bitmap.createBitmap(source.getWidth(), source.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(0);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+        new Canvas(grayscale).drawBitmap(source, 0, 0, paint);
+        return grayscale;
+    }
+
+    /**
+     * @return a white silhouette of source with no partially transparent pixels, for displays
+     * that only have a bit per color in ambient mode.
+     */
+    private static Bitmap toLowBit(Bitmap source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = new int[width * height];
+        source.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = Color.alpha(pixels[i]) >= LOW_BIT_ALPHA_THRESHOLD
+                    ? Color.WHITE : Color.TRANSPARENT;
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+}
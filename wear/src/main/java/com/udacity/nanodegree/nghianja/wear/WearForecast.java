@@ -0,0 +1,130 @@
+package com.udacity.nanodegree.nghianja.wear;
+
+import android.text.format.Time;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * The multi-day forecast sent by the phone as a binary asset on
+ * {@link SunshineWatchFaceUtility#PATH_FORECAST}.  See WearForecastSync in the app module for
+ * the payload format.
+ */
+public class WearForecast {
+    public static final byte PAYLOAD_VERSION = 1;
+
+    public final long[] dates;
+    // The Julian day of each of dates, which is what days are matched by.
+    private final int[] mJulianDays;
+    public final int[] weatherIds;
+    public final float[] highs;
+    public final float[] lows;
+    // Same as the CONTENT_HASH the phone sends alongside the payload.
+    public final long contentHash;
+
+    WearForecast(long[] dates, int[] weatherIds, float[] highs, float[] lows, long contentHash) {
+        this.dates = dates;
+        this.weatherIds = weatherIds;
+        this.highs = highs;
+        this.lows = lows;
+        this.contentHash = contentHash;
+        mJulianDays = new int[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            mJulianDays[i] = getJulianDay(dates[i]);
+        }
+    }
+
+    /**
+     * Reads a whole forecast payload.  The stream is closed when done.
+     *
+     * @throws IOException if the payload is truncated or of a version we don't understand.
+     */
+    public static WearForecast read(InputStream inputStream) throws IOException {
+        return parse(readPayload(inputStream));
+    }
+
+    /**
+     * @return every byte of inputStream, which is closed when done.
+     */
+    static byte[] readPayload(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @throws IOException if payload is truncated or of a version we don't understand.
+     */
+    static WearForecast parse(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        try {
+            byte version = in.readByte();
+            if (version != PAYLOAD_VERSION) {
+                throw new IOException("Unsupported forecast payload version " + version);
+            }
+            long firstDate = in.readLong();
+            // Days are rebuilt by calendar day, not 24 hour steps, so each is still a midnight
+            // after a daylight saving change.
+            int firstJulianDay = getJulianDay(firstDate);
+            Time time = new Time();
+            int count = in.readUnsignedByte();
+            long[] dates = new long[count];
+            int[] weatherIds = new int[count];
+            float[] highs = new float[count];
+            float[] lows = new float[count];
+            for (int i = 0; i < count; i++) {
+                dates[i] = time.setJulianDay(firstJulianDay + in.readUnsignedByte());
+                weatherIds[i] = in.readShort();
+                highs[i] = in.readShort() / 10f;
+                lows[i] = in.readShort() / 10f;
+            }
+            return new WearForecast(dates, weatherIds, highs, lows, getContentHash(payload));
+        } finally {
+            in.close();
+        }
+    }
+
+    static long getContentHash(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    public int size() {
+        return dates.length;
+    }
+
+    /**
+     * @return the index of the day containing date, or -1 if the forecast doesn't cover it.
+     */
+    public int indexOfDay(long date) {
+        int julianDay = getJulianDay(date);
+        for (int i = 0; i < mJulianDays.length; i++) {
+            if (mJulianDays[i] == julianDay) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the Julian day date falls on in the local time zone.
+     */
+    static int getJulianDay(long date) {
+        Time time = new Time();
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+}
@@ -0,0 +1,70 @@
+package com.udacity.nanodegree.nghianja.wear;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the last forecast the phone delivered on the watch, in the phone's own compact payload
+ * format (see {@link WearForecast}), so the watch face can show it as soon as it starts and move
+ * on to the next day's entry at midnight without a round trip to the phone.
+ *
+ * Both methods do file I/O and must not be called on the main thread.
+ */
+class WearForecastStore {
+    private static final String TAG = "WearForecastStore";
+
+    private static final String FILE_NAME = "forecast.bin";
+
+    /**
+     * @return the stored forecast, or null if there is none or it can't be read.
+     */
+    static WearForecast load(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        try {
+            return WearForecast.parse(WearForecast.readPayload(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read stored forecast", e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the stored forecast with payload.  The old forecast stays in place until the new
+     * one is completely written.
+     */
+    static void save(Context context, byte[] payload) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File tempFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(payload);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to store forecast", e);
+            tempFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private WearForecastStore() { }
+}